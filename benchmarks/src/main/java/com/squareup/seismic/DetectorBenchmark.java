@@ -0,0 +1,103 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-sample cost of shake detection. Each operation is one
+ * accelerometer sample, so ns/op is the time {@code onSensorChanged} spends in
+ * detection and {@code gc.alloc.rate.norm} is the bytes it allocates. Run with
+ * the GC profiler:
+ *
+ * <pre>
+ * mvn -pl core,benchmarks -am package -DskipTests
+ * java -jar benchmarks/target/benchmarks.jar -prof gc
+ * </pre>
+ *
+ * <p>Rates cover the LG Ally (5Hz) through {@code SENSOR_DELAY_FASTEST} on
+ * current phones (500Hz). Accelerating ratios cover a device at rest, one
+ * being carried and one being shaken, which clears the queue on every shake.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = DetectorBenchmark.ITERATIONS, time = 1)
+@Measurement(iterations = DetectorBenchmark.ITERATIONS, time = 1)
+@Fork(1)
+public class DetectorBenchmark {
+  static final int ITERATIONS = 5;
+
+  @Param({ "5", "50", "200", "500" })
+  int rateHz;
+
+  @Param({ "0.0", "0.25", "0.9" })
+  double acceleratingRatio;
+
+  private SampleStream stream;
+  private Seismometer seismometer;
+  private Seismometer autoTunedSeismometer;
+  private SampleQueue queue;
+
+  @Setup public void setUp() {
+    stream = new SampleStream(rateHz, acceleratingRatio);
+    seismometer = new Seismometer(new Seismometer.Listener() {
+      @Override public void hearShake() {
+      }
+    });
+    autoTunedSeismometer = new Seismometer(new Seismometer.Listener() {
+      @Override public void hearShake() {
+      }
+    });
+    autoTunedSeismometer.setAutoTune(true);
+    queue = new SampleQueue();
+
+    // Fill the window so that every operation purges as well as adds.
+    for (int i = 0; i < rateHz; i++) {
+      stream.next();
+      seismometer.onSample(stream.timestamp(), stream.x(), 0f, 0f);
+      autoTunedSeismometer.onSample(stream.timestamp(), stream.x(), 0f, 0f);
+      queue.add(stream.timestamp(), stream.accelerating());
+    }
+  }
+
+  /** Everything {@code ShakeDetector.onSensorChanged()} does for one sample. */
+  @Benchmark public void onSample() {
+    stream.next();
+    seismometer.onSample(stream.timestamp(), stream.x(), 0f, 0f);
+  }
+
+  /** {@link #onSample} with the queue sized to the sample rate. */
+  @Benchmark public void onSampleAutoTuned() {
+    stream.next();
+    autoTunedSeismometer.onSample(stream.timestamp(), stream.x(), 0f, 0f);
+  }
+
+  /** Adding a sample to the queue, including purging the one that left the window. */
+  @Benchmark public void queueAdd() {
+    stream.next();
+    queue.add(stream.timestamp(), stream.accelerating());
+  }
+
+  /** Adding a sample to the queue and checking it, as the detector does. */
+  @Benchmark public boolean queueAddAndIsShaking() {
+    stream.next();
+    queue.add(stream.timestamp(), stream.accelerating());
+    return queue.isShaking();
+  }
+
+  /** Checking a full queue without changing it. */
+  @Benchmark public boolean isShaking() {
+    return queue.isShaking();
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+import java.util.Random;
+
+/**
+ * An endless, pre-generated stream of accelerometer samples at a fixed rate in
+ * which a given fraction of samples are accelerating. Advancing the stream
+ * doesn't allocate, so it doesn't pollute the allocation numbers of the code
+ * under test.
+ */
+final class SampleStream {
+  /** Number of distinct samples. A power of two so that wrapping is a mask. */
+  private static final int SIZE = 4096;
+  private static final long NANOS_PER_SECOND = 1000000000L;
+  private static final float STILL = 9.81f;
+  private static final float SHAKING = 25f;
+
+  private final float[] x = new float[SIZE];
+  private final long periodNanos;
+  private int index = -1;
+  private long timestamp;
+
+  SampleStream(int rateHz, double acceleratingRatio) {
+    periodNanos = NANOS_PER_SECOND / rateHz;
+    Random random = new Random(0);
+    for (int i = 0; i < SIZE; i++) {
+      x[i] = random.nextDouble() < acceleratingRatio ? SHAKING : STILL;
+    }
+  }
+
+  /** Advances to the next sample. */
+  void next() {
+    index = (index + 1) & (SIZE - 1);
+    timestamp += periodNanos;
+  }
+
+  long timestamp() {
+    return timestamp;
+  }
+
+  float x() {
+    return x[index];
+  }
+
+  /** Returns true if the current sample exceeds {@link Seismometer#SENSITIVITY_MEDIUM}. */
+  boolean accelerating() {
+    return x[index] > Seismometer.SENSITIVITY_MEDIUM;
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/**
+ * Combines runs of consecutive samples into single queue entries so that a
+ * window holds about {@link #TARGET_ENTRIES} entries at any sample rate. The
+ * rate is measured from the samples' own timestamps. Slow sensors get one
+ * entry per sample, exactly as without decimation. Entries keep how many of
+ * their samples were accelerating, so decimation doesn't change the
+ * accelerating ratio.
+ */
+final class Decimator {
+
+  /** Entries per window to aim for. Enough for the accelerating ratio to be meaningful. */
+  static final int TARGET_ENTRIES = 32;
+
+  /** Weight of each new interval in the average is 1/2^this. */
+  private static final int INTERVAL_AVERAGE_SHIFT = 3;
+
+  private long windowNanos = SampleQueue.MAX_WINDOW_SIZE;
+
+  private boolean hasLastTimestamp;
+  private long lastTimestamp;
+  private long averageIntervalNanos;
+
+  /** Samples per entry. */
+  private int stride = 1;
+
+  // The entry being built.
+  private int count;
+  private int acceleratingCount;
+  private double magnitudeSquaredSum;
+
+  /**
+   * Adds a sample to the current entry. Returns true if that completes the
+   * entry, which {@link #count}, {@link #acceleratingCount} and
+   * {@link #magnitudeSquared} then describe until the next call.
+   */
+  boolean add(long timestamp, boolean accelerating, double magnitudeSquared) {
+    long interval = timestamp - lastTimestamp;
+    if (hasLastTimestamp && interval > 0) {
+      if (averageIntervalNanos == 0) {
+        averageIntervalNanos = interval;
+      } else {
+        averageIntervalNanos += (interval - averageIntervalNanos) >> INTERVAL_AVERAGE_SHIFT;
+      }
+    }
+    lastTimestamp = timestamp;
+    hasLastTimestamp = true;
+
+    if (count == stride) {
+      // The previous entry was read. Start the next one at the current rate.
+      count = 0;
+      acceleratingCount = 0;
+      magnitudeSquaredSum = 0;
+      stride = stride();
+    }
+    count++;
+    if (accelerating) {
+      acceleratingCount++;
+    }
+    magnitudeSquaredSum += magnitudeSquared;
+    return count == stride;
+  }
+
+  /** Number of samples in the entry. */
+  int count() {
+    return count;
+  }
+
+  /** Number of the entry's samples that are accelerating. */
+  int acceleratingCount() {
+    return acceleratingCount;
+  }
+
+  /** Mean squared magnitude of the entry's samples, which preserves its energy. */
+  float magnitudeSquared() {
+    return (float) (magnitudeSquaredSum / count);
+  }
+
+  /** Samples per entry at the current rate. */
+  int currentStride() {
+    return stride;
+  }
+
+  void setWindow(long windowNanos) {
+    this.windowNanos = windowNanos;
+  }
+
+  /** Forgets the partial entry and the measured rate. */
+  void reset() {
+    hasLastTimestamp = false;
+    lastTimestamp = 0;
+    averageIntervalNanos = 0;
+    stride = 1;
+    count = 0;
+    acceleratingCount = 0;
+    magnitudeSquaredSum = 0;
+  }
+
+  private int stride() {
+    if (averageIntervalNanos == 0) {
+      return 1;
+    }
+    long samplesPerWindow = windowNanos / averageIntervalNanos;
+    return (int) Math.max(1, samplesPerWindow / TARGET_ENTRIES);
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the most recent raw samples so that the motion behind a shake can be
+ * attached to a bug report. Samples live in fixed primitive arrays sized up
+ * front, so recording never allocates. Optionally, axes are quantized to 16
+ * bits over {@link #QUANTIZED_RANGE}, which halves their footprint at a
+ * resolution of about 0.0024 m/s^2.
+ *
+ * <p>Detectors {@link #freeze} the recorder when they hear a shake and
+ * {@link #thaw} it once the listener has seen it. While frozen, new samples
+ * are dropped, so the listener can read this recorder in place without
+ * anything being copied. Samples are recorded on one thread; freezing and
+ * thawing may happen on others.
+ */
+public final class FlightRecorder implements SampleSink, FlightRecording {
+
+  /** Quantized axes are clamped to plus or minus this, 8g in m/s^2. */
+  public static final float QUANTIZED_RANGE = 8 * Seismometer.STANDARD_GRAVITY;
+
+  private static final float QUANTIZED_SCALE = Short.MAX_VALUE / QUANTIZED_RANGE;
+
+  private final long durationNanos;
+  private final long[] timestamps;
+
+  /** Axes, either as floats or quantized. The other set is null. */
+  private final float[] xs;
+  private final float[] ys;
+  private final float[] zs;
+  private final short[] quantizedXs;
+  private final short[] quantizedYs;
+  private final short[] quantizedZs;
+
+  /** Index of the oldest sample. */
+  private int head;
+  private int size;
+
+  private final AtomicInteger freezes = new AtomicInteger();
+
+  /**
+   * @param durationNanos how far back to keep samples
+   * @param capacity      most samples to keep. Enough for {@code durationNanos}
+   *     at the sensor's rate; 500 covers a second at SENSOR_DELAY_FASTEST.
+   * @param quantized     true to store axes in 16 bits rather than 32
+   */
+  public FlightRecorder(long durationNanos, int capacity, boolean quantized) {
+    if (durationNanos <= 0) {
+      throw new IllegalArgumentException("durationNanos <= 0: " + durationNanos);
+    }
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity < 1: " + capacity);
+    }
+    this.durationNanos = durationNanos;
+    this.timestamps = new long[capacity];
+    if (quantized) {
+      xs = null;
+      ys = null;
+      zs = null;
+      quantizedXs = new short[capacity];
+      quantizedYs = new short[capacity];
+      quantizedZs = new short[capacity];
+    } else {
+      xs = new float[capacity];
+      ys = new float[capacity];
+      zs = new float[capacity];
+      quantizedXs = null;
+      quantizedYs = null;
+      quantizedZs = null;
+    }
+  }
+
+  /** Records a sample, unless frozen. */
+  @Override public void onSample(long timestampNanos, float x, float y, float z) {
+    if (freezes.get() != 0) {
+      return;
+    }
+    // A sample older than the newest means the sensor restarted, as in SampleQueue.
+    if (size > 0 && timestampNanos - timestampNanos(size - 1) < 0) {
+      clear();
+    }
+    int capacity = timestamps.length;
+    while (size > 0 && timestampNanos - timestamps[head] > durationNanos) {
+      head = head + 1 == capacity ? 0 : head + 1;
+      size--;
+    }
+    if (size == capacity) {
+      head = head + 1 == capacity ? 0 : head + 1;
+      size--;
+    }
+    int slot = slot(size);
+    timestamps[slot] = timestampNanos;
+    if (xs != null) {
+      xs[slot] = x;
+      ys[slot] = y;
+      zs[slot] = z;
+    } else {
+      quantizedXs[slot] = quantize(x);
+      quantizedYs[slot] = quantize(y);
+      quantizedZs[slot] = quantize(z);
+    }
+    size++;
+  }
+
+  /**
+   * Stops recording so that the samples so far can be read. Each call must
+   * be matched by a call to {@link #thaw}.
+   */
+  public void freeze() {
+    freezes.incrementAndGet();
+  }
+
+  /** Resumes recording once every {@link #freeze} has been thawed. */
+  public void thaw() {
+    if (freezes.decrementAndGet() < 0) {
+      freezes.incrementAndGet();
+      throw new IllegalStateException("Not frozen");
+    }
+  }
+
+  /** Forgets all samples. Call on the recording thread. */
+  public void clear() {
+    head = 0;
+    size = 0;
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  @Override public long timestampNanos(int index) {
+    return timestamps[checkedSlot(index)];
+  }
+
+  @Override public float x(int index) {
+    int slot = checkedSlot(index);
+    return xs != null ? xs[slot] : dequantize(quantizedXs[slot]);
+  }
+
+  @Override public float y(int index) {
+    int slot = checkedSlot(index);
+    return ys != null ? ys[slot] : dequantize(quantizedYs[slot]);
+  }
+
+  @Override public float z(int index) {
+    int slot = checkedSlot(index);
+    return zs != null ? zs[slot] : dequantize(quantizedZs[slot]);
+  }
+
+  @Override public void writeTo(SampleSink sink) {
+    for (int i = 0; i < size; i++) {
+      sink.onSample(timestampNanos(i), x(i), y(i), z(i));
+    }
+  }
+
+  private int checkedSlot(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("index " + index + " not in [0, " + size + ")");
+    }
+    return slot(index);
+  }
+
+  private int slot(int index) {
+    int slot = head + index;
+    return slot >= timestamps.length ? slot - timestamps.length : slot;
+  }
+
+  private static short quantize(float value) {
+    float clamped = Math.max(-QUANTIZED_RANGE, Math.min(QUANTIZED_RANGE, value));
+    return (short) Math.round(clamped * QUANTIZED_SCALE);
+  }
+
+  private static float dequantize(short value) {
+    return value / QUANTIZED_SCALE;
+  }
+}
@@ -0,0 +1,22 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/**
+ * Read-only view of the raw samples leading up to a shake, oldest first.
+ * See {@link FlightRecorder}.
+ */
+public interface FlightRecording {
+  /** Number of samples recorded. */
+  int size();
+
+  long timestampNanos(int index);
+
+  float x(int index);
+
+  float y(int index);
+
+  float z(int index);
+
+  /** Feeds every sample to {@code sink}, oldest first. For example, a {@code TraceWriter}. */
+  void writeTo(SampleSink sink);
+}
@@ -0,0 +1,48 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/**
+ * Removes gravity from accelerometer samples with a first-order high-pass
+ * filter, for devices without a linear acceleration sensor. Gravity is
+ * tracked by a low-pass filter whose time constant is long compared to a
+ * shake, and weighted by the time between samples so that the filter behaves
+ * the same at any sampling rate.
+ */
+final class GravityFilter {
+  /** Time constant of the gravity estimate, in ns. */
+  private static final double TIME_CONSTANT_NANOS = 500000000.0; // 0.5s
+
+  private float gravityX;
+  private float gravityY;
+  private float gravityZ;
+  private long lastTimestamp;
+  private boolean initialized;
+
+  /** Returns the squared magnitude of the sample with gravity removed. */
+  double linearMagnitudeSquared(long timestamp, float x, float y, float z) {
+    if (!initialized) {
+      // Assume the device starts out still.
+      gravityX = x;
+      gravityY = y;
+      gravityZ = z;
+      initialized = true;
+    } else {
+      long elapsed = timestamp - lastTimestamp;
+      float alpha = elapsed > 0 ? (float) (TIME_CONSTANT_NANOS / (TIME_CONSTANT_NANOS + elapsed)) : 1f;
+      gravityX = alpha * gravityX + (1 - alpha) * x;
+      gravityY = alpha * gravityY + (1 - alpha) * y;
+      gravityZ = alpha * gravityZ + (1 - alpha) * z;
+    }
+    lastTimestamp = timestamp;
+
+    float linearX = x - gravityX;
+    float linearY = y - gravityY;
+    float linearZ = z - gravityZ;
+    return linearX * linearX + linearY * linearY + linearZ * linearZ;
+  }
+
+  /** Forgets the gravity estimate. */
+  void reset() {
+    initialized = false;
+  }
+}
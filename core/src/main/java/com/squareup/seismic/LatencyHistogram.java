@@ -0,0 +1,132 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, as in
+ * HdrHistogram. Each power of two is split into 16 equal buckets, so every
+ * value is counted within about 6% of its true value from 32ns up to about
+ * 18 minutes. Larger values are counted in the last bucket.
+ *
+ * <p>Recording is a few shifts under this object's lock and never allocates.
+ * Any thread may {@link #copyTo} another histogram to export it; the
+ * recording thread waits for at most the copy.
+ */
+public final class LatencyHistogram {
+
+  /** Values below 2^this are counted exactly. */
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1;
+  private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_BITS;
+
+  /** Values of 2^this ns or more are counted as the largest value. */
+  private static final int MAX_VALUE_BITS = 40;
+  private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+  /** Number of buckets. */
+  public static final int BUCKET_COUNT = index(MAX_VALUE) + 1;
+
+  private static final double PERCENT = 100.0;
+
+  // Guarded by this.
+  private final long[] counts = new long[BUCKET_COUNT];
+  private long totalCount;
+  private long min = Long.MAX_VALUE;
+  private long max;
+
+  /**
+   * Counts {@code nanos}. Negative values, from clocks that disagree by a
+   * little, are counted as 0.
+   */
+  public void record(long nanos) {
+    long value = Math.min(Math.max(0, nanos), MAX_VALUE);
+    synchronized (this) {
+      counts[index(value)]++;
+      totalCount++;
+      if (value < min) {
+        min = value;
+      }
+      if (value > max) {
+        max = value;
+      }
+    }
+  }
+
+  /**
+   * Copies this histogram's counts into {@code target}, which must not be
+   * recording or shared with other threads. Safe to call from any thread. Reusing the target avoids
+   * allocating.
+   */
+  public synchronized void copyTo(LatencyHistogram target) {
+    System.arraycopy(counts, 0, target.counts, 0, BUCKET_COUNT);
+    target.totalCount = totalCount;
+    target.min = min;
+    target.max = max;
+  }
+
+  /** Number of values recorded. */
+  public synchronized long totalCount() {
+    return totalCount;
+  }
+
+  /** Smallest value recorded, or 0 if there are none. */
+  public synchronized long min() {
+    return totalCount == 0 ? 0 : min;
+  }
+
+  /** Largest value recorded, or 0 if there are none. */
+  public synchronized long max() {
+    return max;
+  }
+
+  /**
+   * Returns the value that {@code percentile} percent of recorded values are
+   * no greater than, to the precision of its bucket. Returns 0 if there are
+   * none.
+   */
+  public synchronized long valueAtPercentile(double percentile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(totalCount * Math.min(percentile, PERCENT) / PERCENT));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= target) {
+        return Math.min(bucketHighestValue(i), max);
+      }
+    }
+    return max;
+  }
+
+  /** Number of recorded values in {@code bucket}. */
+  public synchronized long bucketCount(int bucket) {
+    return counts[bucket];
+  }
+
+  /** Smallest value counted in {@code bucket}. */
+  public static long bucketLowestValue(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int shift = (bucket >> SUB_BUCKET_HALF_BITS) - 1;
+    return (long) ((bucket & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT) << shift;
+  }
+
+  /** Largest value counted in {@code bucket}. */
+  public static long bucketHighestValue(int bucket) {
+    return bucket == BUCKET_COUNT - 1 ? MAX_VALUE : bucketLowestValue(bucket + 1) - 1;
+  }
+
+  /**
+   * Returns the bucket for {@code value}. Values below 32 get a bucket each.
+   * Above that, the bucket is the value's exponent and its top five bits.
+   */
+  static int index(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift << SUB_BUCKET_HALF_BITS) + (int) (value >>> shift);
+  }
+}
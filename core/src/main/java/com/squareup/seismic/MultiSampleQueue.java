@@ -0,0 +1,147 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+import java.util.Arrays;
+
+/**
+ * A {@link SampleQueue} shared by several acceleration thresholds. Each sample
+ * stores how many of the ascending thresholds it exceeds, and each threshold
+ * keeps its own running counts over the samples it has seen since it last
+ * heard a shake. One ring of timestamps serves every threshold.
+ *
+ * <p>Samples are purged from the shared window once it holds
+ * {@link SampleQueue#MIN_QUEUE_SIZE} samples, so right after a level hears a
+ * shake it may briefly count fewer samples than a dedicated queue would keep.
+ * This only matters on devices slower than about 8Hz.
+ */
+final class MultiSampleQueue {
+  private static final long MAX_WINDOW_SIZE = SampleQueue.MAX_WINDOW_SIZE;
+  private static final long MIN_WINDOW_SIZE = MAX_WINDOW_SIZE >> 1;
+  private static final int MIN_QUEUE_SIZE = SampleQueue.MIN_QUEUE_SIZE;
+
+  /** Initial ring capacity. Must be a power of two. */
+  private static final int INITIAL_CAPACITY = 64;
+
+  private long[] timestamps = new long[INITIAL_CAPACITY];
+
+  /** Number of thresholds each sample exceeds. */
+  private byte[] exceeded = new byte[INITIAL_CAPACITY];
+
+  /** Slot of the oldest sample. */
+  private int head;
+  private int sampleCount;
+
+  /** Sequence number of the oldest sample. Sequence numbers never wrap. */
+  private long headSequence;
+
+  /** Per level: the first sample it counts, and its counts since then. */
+  private final long[] levelStarts;
+  private final int[] levelSampleCounts;
+  private final int[] levelAcceleratingCounts;
+
+  MultiSampleQueue(int levels) {
+    levelStarts = new long[levels];
+    levelSampleCounts = new int[levels];
+    levelAcceleratingCounts = new int[levels];
+  }
+
+  /**
+   * Adds a sample.
+   *
+   * @param timestamp in nanoseconds of sample
+   * @param exceededLevels number of levels whose threshold the sample exceeds
+   */
+  void add(long timestamp, int exceededLevels) {
+    // See SampleQueue.add().
+    if (sampleCount > 0 && timestamp - newestTimestamp() < 0) {
+      clear();
+    }
+
+    purge(timestamp - MAX_WINDOW_SIZE);
+
+    if (sampleCount == timestamps.length) {
+      grow();
+    }
+
+    int slot = (head + sampleCount) & (timestamps.length - 1);
+    timestamps[slot] = timestamp;
+    exceeded[slot] = (byte) exceededLevels;
+    sampleCount++;
+
+    for (int level = 0; level < levelStarts.length; level++) {
+      levelSampleCounts[level]++;
+      if (level < exceededLevels) {
+        levelAcceleratingCounts[level]++;
+      }
+    }
+  }
+
+  /** Removes all samples from this queue, for every level. */
+  void clear() {
+    headSequence += sampleCount;
+    head = 0;
+    sampleCount = 0;
+    Arrays.fill(levelStarts, headSequence);
+    Arrays.fill(levelSampleCounts, 0);
+    Arrays.fill(levelAcceleratingCounts, 0);
+  }
+
+  /** Forgets the samples seen so far by {@code level} only. */
+  void clear(int level) {
+    levelStarts[level] = headSequence + sampleCount;
+    levelSampleCounts[level] = 0;
+    levelAcceleratingCounts[level] = 0;
+  }
+
+  /** Purges samples with timestamps older than cutoff. */
+  private void purge(long cutoff) {
+    int mask = timestamps.length - 1;
+    while (sampleCount >= MIN_QUEUE_SIZE && cutoff - timestamps[head] > 0) {
+      int exceededLevels = exceeded[head];
+      for (int level = 0; level < levelStarts.length; level++) {
+        if (headSequence >= levelStarts[level]) {
+          levelSampleCounts[level]--;
+          if (level < exceededLevels) {
+            levelAcceleratingCounts[level]--;
+          }
+        }
+      }
+      sampleCount--;
+      headSequence++;
+      head = (head + 1) & mask;
+    }
+  }
+
+  /**
+   * Returns true if {@code level} has enough samples and more than 3/4 of
+   * those samples are accelerating.
+   */
+  boolean isShaking(int level) {
+    int count = levelSampleCounts[level];
+    if (count == 0) {
+      return false;
+    }
+    int oldest = (head + (sampleCount - count)) & (timestamps.length - 1);
+    return newestTimestamp() - timestamps[oldest] >= MIN_WINDOW_SIZE
+        && levelAcceleratingCounts[level] >= (count >> 1) + (count >> 2);
+  }
+
+  private long newestTimestamp() {
+    return timestamps[(head + sampleCount - 1) & (timestamps.length - 1)];
+  }
+
+  /** Doubles the ring's capacity, unwrapping the samples so the oldest is at slot 0. */
+  private void grow() {
+    int capacity = timestamps.length;
+    long[] newTimestamps = new long[capacity << 1];
+    byte[] newExceeded = new byte[capacity << 1];
+    for (int i = 0; i < sampleCount; i++) {
+      int slot = (head + i) & (capacity - 1);
+      newTimestamps[i] = timestamps[slot];
+      newExceeded[i] = exceeded[slot];
+    }
+    timestamps = newTimestamps;
+    exceeded = newExceeded;
+    head = 0;
+  }
+}
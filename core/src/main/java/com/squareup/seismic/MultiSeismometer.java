@@ -0,0 +1,74 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/**
+ * Detects shaking at several sensitivities in a single pass, for apps that
+ * let users pick how hard they have to shake. Each sample's squared magnitude
+ * is computed once and all levels share one window of timestamps, so this
+ * costs much less than one {@link Seismometer} per level. Each level hears
+ * its own shakes, exactly as a {@link Seismometer} with that sensitivity
+ * would. Not thread safe.
+ */
+public class MultiSeismometer implements SampleSink {
+  /** Squared thresholds in ascending order. */
+  private final double[] thresholdsSquared;
+
+  /** Listeners in the same order as {@link #thresholdsSquared}. */
+  private final Seismometer.Listener[] listeners;
+
+  private final MultiSampleQueue queue;
+
+  /**
+   * @param accelerationThresholds sensitivities such as
+   *     {@link Seismometer#SENSITIVITY_LIGHT}, in any order
+   * @param listeners listeners for each of {@code accelerationThresholds}
+   */
+  public MultiSeismometer(int[] accelerationThresholds, Seismometer.Listener[] listeners) {
+    int levels = accelerationThresholds.length;
+    if (listeners.length != levels) {
+      throw new IllegalArgumentException(
+          levels + " thresholds but " + listeners.length + " listeners");
+    }
+    if (levels > Byte.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many thresholds: " + levels);
+    }
+
+    // Sort the levels by threshold so that a sample exceeds a prefix of them.
+    this.thresholdsSquared = new double[levels];
+    this.listeners = new Seismometer.Listener[levels];
+    for (int i = 0; i < levels; i++) {
+      int threshold = accelerationThresholds[i];
+      int level = i;
+      while (level > 0 && thresholdsSquared[level - 1] > (double) threshold * threshold) {
+        thresholdsSquared[level] = thresholdsSquared[level - 1];
+        this.listeners[level] = this.listeners[level - 1];
+        level--;
+      }
+      thresholdsSquared[level] = (double) threshold * threshold;
+      this.listeners[level] = listeners[i];
+    }
+    this.queue = new MultiSampleQueue(levels);
+  }
+
+  @Override public void onSample(long timestampNanos, float x, float y, float z) {
+    final double magnitudeSquared = x * x + y * y + z * z;
+    int exceeded = 0;
+    while (exceeded < thresholdsSquared.length
+        && magnitudeSquared > thresholdsSquared[exceeded]) {
+      exceeded++;
+    }
+
+    queue.add(timestampNanos, exceeded);
+    for (int level = 0; level < listeners.length; level++) {
+      if (queue.isShaking(level)) {
+        queue.clear(level);
+        listeners[level].hearShake();
+      }
+    }
+  }
+
+  /** Forgets all samples seen so far. */
+  public void reset() {
+    queue.clear();
+  }
+}
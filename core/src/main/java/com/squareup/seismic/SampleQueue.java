@@ -0,0 +1,500 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queue of samples. Keeps a running average. Samples live in a ring buffer
+ * of timestamps with parallel arrays of counts, so adding, purging and
+ * clearing never allocate once the buffer has grown to fit the sensor's
+ * rate. An entry may stand for several consecutive samples; it keeps how
+ * many of them were accelerating, so the accelerating ratio is always of
+ * samples.
+ *
+ * <p>Once they are first asked for, the queue also keeps statistics of the
+ * magnitudes in the window: the sum of squares, a running mean and variance
+ * and monotonic deques for the minimum and maximum. Each is updated on add
+ * and reversed on purge in constant time, so none needs a rescan of the
+ * window. Until then, adding a sample only stores its squared magnitude.
+ *
+ * <p>Each sample is also weighted by the time since the previous one. In
+ * time-weighted mode, the accelerating ratio compares the time covered by
+ * accelerating samples with the window's total, so bursty or slow delivery
+ * doesn't skew it.
+ */
+final class SampleQueue {
+
+  /** Window size in ns. Used to compute the average. */
+  static final long MAX_WINDOW_SIZE = 500000000; // 0.5s
+
+  /**
+   * Ensure the queue size never falls below this size, even if the device
+   * fails to deliver this many events during the time window. The LG Ally
+   * is one such device.
+   */
+  static final int MIN_QUEUE_SIZE = 4;
+
+  /** Fraction of samples that must be accelerating for a shake. */
+  static final float ACCELERATING_RATIO = 0.75f;
+
+  /** Initial ring capacity. Must be a power of two no smaller than 64. */
+  private static final int INITIAL_CAPACITY = 64;
+
+  /** Sample timestamps in ring order. Length is always a power of two. */
+  private long[] timestamps = new long[INITIAL_CAPACITY];
+
+  /** Number of samples in each slot in {@link #timestamps}. */
+  private int[] sampleCounts = new int[INITIAL_CAPACITY];
+
+  /** Number of accelerating samples in each slot in {@link #timestamps}. */
+  private int[] acceleratingCounts = new int[INITIAL_CAPACITY];
+
+  /** Squared magnitude of each slot in {@link #timestamps}. */
+  private float[] magnitudesSquared = new float[INITIAL_CAPACITY];
+
+  /** Nanoseconds covered by each slot in {@link #timestamps}. */
+  private long[] durations = new long[INITIAL_CAPACITY];
+
+  /** Magnitude of each slot in {@link #timestamps}. */
+  private float[] magnitudes = new float[INITIAL_CAPACITY];
+
+  /** Slots of samples larger than every newer sample. The front is the window's maximum. */
+  private final SlotDeque maxSlots = new SlotDeque(INITIAL_CAPACITY);
+
+  /** Slots of samples smaller than every newer sample. The front is the window's minimum. */
+  private final SlotDeque minSlots = new SlotDeque(INITIAL_CAPACITY);
+
+  private long maxWindowSize = MAX_WINDOW_SIZE;
+  private long minWindowSize = MAX_WINDOW_SIZE >> 1;
+  private int minQueueSize = MIN_QUEUE_SIZE;
+  private float acceleratingRatio = ACCELERATING_RATIO;
+  private boolean timeWeighted;
+
+  /**
+   * Longest time a sample can cover. Longer gaps, from dropped or batched
+   * events, are capped so that one sample can't decide a shake on its own.
+   */
+  private long maxDuration = MAX_WINDOW_SIZE >> 2;
+
+  /** Slot of the oldest entry. */
+  private int head;
+
+  /** Number of entries. */
+  private int size;
+
+  /** Number of samples in the entries, and how many were accelerating. */
+  private int sampleCount;
+  private int acceleratingCount;
+  private double magnitudeSquaredSum;
+  private long totalDuration;
+  private long acceleratingDuration;
+
+  /** True once statistics have been asked for. Until then, add and purge skip them. */
+  private boolean statistics;
+
+  /**
+   * Welford's running mean of the magnitudes and sum of squared differences
+   * from it. Sums of doubles would lose the variance to cancellation.
+   */
+  private double magnitudeMean;
+  private double magnitudeM2;
+
+  /** Adds a sample whose magnitude is not known. */
+  void add(long timestamp, boolean accelerating) {
+    add(timestamp, accelerating, 0f);
+  }
+
+  /**
+   * Adds a sample.
+   *
+   * @param timestamp        in nanoseconds of sample
+   * @param accelerating     true if above the acceleration threshold.
+   * @param magnitudeSquared squared magnitude of the sample's acceleration
+   */
+  void add(long timestamp, boolean accelerating, float magnitudeSquared) {
+    add(timestamp, 1, accelerating ? 1 : 0, magnitudeSquared);
+  }
+
+  /**
+   * Adds an entry that stands for {@code samples} consecutive samples ending
+   * at {@code timestamp}, of which {@code acceleratingSamples} were
+   * accelerating.
+   */
+  void add(long timestamp, int samples, int acceleratingSamples, float magnitudeSquared) {
+    // Samples normally arrive in order, even when a batching sensor delivers
+    // them late in a burst. One that is older than the newest sample means the
+    // sensor was restarted or replayed its FIFO. Start over rather than mix
+    // the two streams.
+    if (size > 0 && timestamp - newestTimestamp() < 0) {
+      clear();
+    }
+
+    // Purge samples that proceed window.
+    purge(timestamp - maxWindowSize);
+
+    if (size == timestamps.length) {
+      grow();
+    }
+
+    // Add the sample to the queue.
+    int slot = (head + size) & (timestamps.length - 1);
+    // A sample covers the time since the previous one. The first has nothing to measure against.
+    long duration = size == 0 ? 0 : Math.min(timestamp - newestTimestamp(), maxDuration);
+    timestamps[slot] = timestamp;
+    durations[slot] = duration;
+    magnitudesSquared[slot] = magnitudeSquared;
+    sampleCounts[slot] = samples;
+    acceleratingCounts[slot] = acceleratingSamples;
+
+    // Update running average.
+    size++;
+    sampleCount += samples;
+    acceleratingCount += acceleratingSamples;
+    totalDuration += duration;
+    acceleratingDuration += acceleratingDuration(slot);
+    if (statistics) {
+      addStatistics(slot, size);
+    }
+  }
+
+  /** Adds the entry in {@code slot} to the statistics of a window of {@code count} entries. */
+  private void addStatistics(int slot, int count) {
+    float magnitude = (float) Math.sqrt(magnitudesSquared[slot]);
+    magnitudes[slot] = magnitude;
+    magnitudeSquaredSum += magnitudesSquared[slot];
+    double delta = magnitude - magnitudeMean;
+    magnitudeMean += delta / count;
+    magnitudeM2 += delta * (magnitude - magnitudeMean);
+    maxSlots.push(slot, magnitudes, true);
+    minSlots.push(slot, magnitudes, false);
+  }
+
+  /** Removes all samples from this queue. */
+  void clear() {
+    head = 0;
+    size = 0;
+    sampleCount = 0;
+    acceleratingCount = 0;
+    totalDuration = 0;
+    acceleratingDuration = 0;
+    clearStatistics();
+  }
+
+  private void clearStatistics() {
+    magnitudeSquaredSum = 0;
+    magnitudeMean = 0;
+    magnitudeM2 = 0;
+    maxSlots.clear();
+    minSlots.clear();
+  }
+
+  /** Purges samples with timestamps older than cutoff. */
+  void purge(long cutoff) {
+    int mask = timestamps.length - 1;
+    while (size >= minQueueSize && cutoff - timestamps[head] > 0) {
+      // Remove sample.
+      sampleCount -= sampleCounts[head];
+      acceleratingCount -= acceleratingCounts[head];
+      totalDuration -= durations[head];
+      acceleratingDuration -= acceleratingDuration(head);
+      if (statistics) {
+        magnitudeSquaredSum -= magnitudesSquared[head];
+        removeMagnitude(magnitudes[head]);
+        maxSlots.remove(head);
+        minSlots.remove(head);
+      }
+      size--;
+      head = (head + 1) & mask;
+    }
+  }
+
+  /** Copies the samples into a list, with the oldest entry at index 0. */
+  List<Sample> asList() {
+    List<Sample> list = new ArrayList<Sample>(size);
+    int mask = timestamps.length - 1;
+    for (int i = 0; i < size; i++) {
+      int slot = (head + i) & mask;
+      Sample s = new Sample();
+      s.timestamp = timestamps[slot];
+      s.accelerating = isAccelerating(slot);
+      list.add(s);
+    }
+    return list;
+  }
+
+  /**
+   * Returns true if we have enough samples and more than 3/4 of those samples
+   * are accelerating.
+   */
+  boolean isShaking() {
+    if (size == 0 || newestTimestamp() - timestamps[head] < minWindowSize) {
+      return false;
+    }
+    if (timeWeighted) {
+      return totalDuration > 0 && acceleratingDuration >= minAccelerating(totalDuration);
+    }
+    return acceleratingCount >= minAccelerating(sampleCount);
+  }
+
+  /** Number of entries in the window. */
+  int size() {
+    return size;
+  }
+
+  /** Number of samples in the window. */
+  int sampleCount() {
+    return sampleCount;
+  }
+
+  /** Number of entries the ring holds before it has to grow. */
+  int capacity() {
+    return timestamps.length;
+  }
+
+  /** Number of samples in the window that are accelerating. */
+  int acceleratingCount() {
+    return acceleratingCount;
+  }
+
+  /** Time between the oldest and newest samples, or 0 if there are fewer than two. */
+  long spanNanos() {
+    return size == 0 ? 0 : newestTimestamp() - timestamps[head];
+  }
+
+  /**
+   * Describes the samples in this queue in {@code event}, including their
+   * magnitudes. The first call starts keeping statistics. Does not allocate.
+   */
+  void fill(ShakeEvent event) {
+    if (!statistics) {
+      startStatistics();
+    }
+    fillWindow(event);
+    if (size == 0) {
+      return;
+    }
+    event.peakMagnitudeSquared = magnitudesSquared[maxSlots.front()];
+    event.meanMagnitudeSquared = (float) (magnitudeSquaredSum / size);
+    event.meanMagnitude = (float) magnitudeMean;
+    // Removing samples can leave rounding error just below zero.
+    event.magnitudeVariance = (float) Math.max(0, magnitudeM2 / size);
+    event.minMagnitude = magnitudes[minSlots.front()];
+  }
+
+  /**
+   * Describes the window and its counts in {@code event}, leaving out the
+   * magnitudes. Does not allocate.
+   */
+  void fillWindow(ShakeEvent event) {
+    event.sampleCount = sampleCount;
+    event.acceleratingCount = acceleratingCount;
+    event.windowStartNanos = size == 0 ? 0 : timestamps[head];
+    event.windowEndNanos = size == 0 ? 0 : newestTimestamp();
+    event.accelerationStartNanos = accelerationStart();
+    event.peakMagnitudeSquared = 0f;
+    event.meanMagnitudeSquared = 0f;
+    event.meanMagnitude = 0f;
+    event.magnitudeVariance = 0f;
+    event.minMagnitude = 0f;
+  }
+
+  /**
+   * Returns the timestamp of the oldest accelerating sample in the window, or
+   * of the oldest sample if none is accelerating. Scans the window, which is
+   * fine once per shake.
+   */
+  private long accelerationStart() {
+    int mask = timestamps.length - 1;
+    for (int i = 0; i < size; i++) {
+      int slot = (head + i) & mask;
+      if (acceleratingCounts[slot] > 0) {
+        return timestamps[slot];
+      }
+    }
+    return size == 0 ? 0 : timestamps[head];
+  }
+
+  /** Starts keeping statistics, beginning with the samples already in the window. */
+  private void startStatistics() {
+    statistics = true;
+    clearStatistics();
+    int mask = timestamps.length - 1;
+    for (int i = 0; i < size; i++) {
+      addStatistics((head + i) & mask, i + 1);
+    }
+  }
+
+  /**
+   * Sets the window to keep samples for. Shakes need samples spanning at
+   * least half the window. Takes effect as samples are added.
+   */
+  void setWindow(long maxWindowSize, int minQueueSize) {
+    if (maxWindowSize <= 0) {
+      throw new IllegalArgumentException("maxWindowSize <= 0: " + maxWindowSize);
+    }
+    if (minQueueSize < 1) {
+      throw new IllegalArgumentException("minQueueSize < 1: " + minQueueSize);
+    }
+    this.maxWindowSize = maxWindowSize;
+    this.minWindowSize = maxWindowSize >> 1;
+    this.minQueueSize = minQueueSize;
+    this.maxDuration = maxWindowSize >> 2;
+  }
+
+  /**
+   * Sets whether the accelerating ratio is of time rather than of samples.
+   * Takes effect immediately; durations are always tracked.
+   */
+  void setTimeWeighted(boolean timeWeighted) {
+    this.timeWeighted = timeWeighted;
+  }
+
+  /** Sets the fraction of samples in the window that must be accelerating. */
+  void setAcceleratingRatio(float acceleratingRatio) {
+    if (!(acceleratingRatio > 0 && acceleratingRatio <= 1)) {
+      throw new IllegalArgumentException("acceleratingRatio not in (0, 1]: " + acceleratingRatio);
+    }
+    this.acceleratingRatio = acceleratingRatio;
+  }
+
+  /** Returns how much of {@code total}, in samples or time, must be accelerating. */
+  private long minAccelerating(long total) {
+    if (acceleratingRatio == ACCELERATING_RATIO) {
+      return (total >> 1) + (total >> 2);
+    }
+    return (long) (total * acceleratingRatio);
+  }
+
+  /** Reverses the running mean and variance's update for {@code magnitude}. */
+  private void removeMagnitude(float magnitude) {
+    if (size == 1) {
+      magnitudeMean = 0;
+      magnitudeM2 = 0;
+      return;
+    }
+    double delta = magnitude - magnitudeMean;
+    magnitudeMean -= delta / (size - 1);
+    magnitudeM2 -= delta * (magnitude - magnitudeMean);
+  }
+
+  private long newestTimestamp() {
+    return timestamps[(head + size - 1) & (timestamps.length - 1)];
+  }
+
+  /** True if most of the samples in {@code slot} are accelerating. */
+  private boolean isAccelerating(int slot) {
+    return acceleratingCounts[slot] << 1 > sampleCounts[slot];
+  }
+
+  /** Time covered by the accelerating samples in {@code slot}, in proportion to their count. */
+  private long acceleratingDuration(int slot) {
+    int accelerating = acceleratingCounts[slot];
+    if (accelerating == sampleCounts[slot]) {
+      return durations[slot];
+    }
+    if (accelerating == 0) {
+      return 0;
+    }
+    return durations[slot] * accelerating / sampleCounts[slot];
+  }
+
+  /** Doubles the ring's capacity, unwrapping the samples so the oldest is at slot 0. */
+  private void grow() {
+    int capacity = timestamps.length;
+    long[] newTimestamps = new long[capacity << 1];
+    int[] newSampleCounts = new int[capacity << 1];
+    int[] newAcceleratingCounts = new int[capacity << 1];
+    float[] newMagnitudesSquared = new float[capacity << 1];
+    float[] newMagnitudes = new float[capacity << 1];
+    long[] newDurations = new long[capacity << 1];
+    for (int i = 0; i < size; i++) {
+      int slot = (head + i) & (capacity - 1);
+      newTimestamps[i] = timestamps[slot];
+      newMagnitudesSquared[i] = magnitudesSquared[slot];
+      newMagnitudes[i] = magnitudes[slot];
+      newDurations[i] = durations[slot];
+      newSampleCounts[i] = sampleCounts[slot];
+      newAcceleratingCounts[i] = acceleratingCounts[slot];
+    }
+    maxSlots.grow(head);
+    minSlots.grow(head);
+    timestamps = newTimestamps;
+    sampleCounts = newSampleCounts;
+    acceleratingCounts = newAcceleratingCounts;
+    magnitudesSquared = newMagnitudesSquared;
+    magnitudes = newMagnitudes;
+    durations = newDurations;
+    head = 0;
+  }
+
+  /**
+   * Ring of slots whose values are monotonic from the front, for sliding
+   * window minimums and maximums. It holds at most one entry per sample, so
+   * it shares the sample ring's capacity.
+   */
+  private static final class SlotDeque {
+    private int[] slots;
+    private int front;
+    private int count;
+
+    SlotDeque(int capacity) {
+      slots = new int[capacity];
+    }
+
+    /**
+     * Adds {@code slot} at the back. Older slots whose values can no longer
+     * be the window's maximum, or minimum, are dropped first.
+     */
+    void push(int slot, float[] values, boolean maximum) {
+      int mask = slots.length - 1;
+      float value = values[slot];
+      while (count > 0) {
+        float back = values[slots[(front + count - 1) & mask]];
+        if (maximum ? back > value : back < value) {
+          break;
+        }
+        count--;
+      }
+      slots[(front + count) & mask] = slot;
+      count++;
+    }
+
+    /** Removes {@code slot} if it is at the front. Call as each oldest sample leaves. */
+    void remove(int slot) {
+      if (count > 0 && slots[front] == slot) {
+        front = (front + 1) & (slots.length - 1);
+        count--;
+      }
+    }
+
+    int front() {
+      return slots[front];
+    }
+
+    void clear() {
+      front = 0;
+      count = 0;
+    }
+
+    /** Doubles the capacity as the sample ring unwraps so that {@code head} moves to slot 0. */
+    void grow(int head) {
+      int mask = slots.length - 1;
+      int[] newSlots = new int[slots.length << 1];
+      for (int i = 0; i < count; i++) {
+        newSlots[i] = (slots[(front + i) & mask] - head) & mask;
+      }
+      slots = newSlots;
+      front = 0;
+    }
+  }
+
+  /** An accelerometer sample. */
+  static final class Sample {
+    /** Time sample was taken. */
+    long timestamp;
+
+    /** If acceleration was above the threshold. */
+    boolean accelerating;
+  }
+}
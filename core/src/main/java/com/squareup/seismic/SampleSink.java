@@ -0,0 +1,15 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/** Receives accelerometer samples. */
+public interface SampleSink {
+  /**
+   * Called for each sample, in timestamp order.
+   *
+   * @param timestampNanos time the sample was taken, in nanoseconds
+   * @param x acceleration along the x axis, in m/s^2
+   * @param y acceleration along the y axis, in m/s^2
+   * @param z acceleration along the z axis, in m/s^2
+   */
+  void onSample(long timestampNanos, float x, float y, float z);
+}
@@ -0,0 +1,24 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/**
+ * A source of accelerometer samples that is read one sample at a time, such
+ * as a recorded trace. Implementations expose the current sample through
+ * accessors rather than objects so that iterating doesn't allocate.
+ */
+public interface SampleSource {
+  /** Advances to the next sample. Returns false once the source is exhausted. */
+  boolean next();
+
+  /** Time the current sample was taken, in nanoseconds. */
+  long timestamp();
+
+  /** Acceleration of the current sample along the x axis, in m/s^2. */
+  float x();
+
+  /** Acceleration of the current sample along the y axis, in m/s^2. */
+  float y();
+
+  /** Acceleration of the current sample along the z axis, in m/s^2. */
+  float z();
+}
@@ -0,0 +1,430 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/**
+ * Detects shaking in a stream of accelerometer samples. If more than 75% of
+ * the samples taken in the past 0.5s are accelerating, the device is a)
+ * shaking, or b) free falling 1.84m (h = 1/2*g*t^2*3/4).
+ *
+ * <p>This class has no platform dependencies. Feed it samples from a sensor,
+ * a recorded trace or a benchmark through {@link #onSample}. It is not thread
+ * safe; call it from one thread at a time. The exception is {@link #poll},
+ * which any thread may call while samples arrive.
+ */
+public class Seismometer implements SampleSink {
+
+  public static final int SENSITIVITY_LIGHT = 11;
+  public static final int SENSITIVITY_MEDIUM = 13;
+  public static final int SENSITIVITY_HARD = 15;
+
+  private static final int DEFAULT_ACCELERATION_THRESHOLD = SENSITIVITY_MEDIUM;
+
+  /** Defaults for {@link #setWindow} and {@link #setAcceleratingRatio}. */
+  public static final long DEFAULT_WINDOW_NANOS = SampleQueue.MAX_WINDOW_SIZE;
+  public static final int DEFAULT_MIN_QUEUE_SIZE = SampleQueue.MIN_QUEUE_SIZE;
+  public static final float DEFAULT_ACCELERATING_RATIO = SampleQueue.ACCELERATING_RATIO;
+
+  /** Samples include gravity, as from a raw accelerometer. The default. */
+  public static final int GRAVITY_INCLUDED = 0;
+
+  /** Samples have had gravity removed, as from a linear acceleration sensor. */
+  public static final int GRAVITY_REMOVED = 1;
+
+  /** Samples include gravity, which the seismometer filters out itself. */
+  public static final int GRAVITY_FILTERED = 2;
+
+  /** Standard gravity in m/s^2. */
+  public static final float STANDARD_GRAVITY = 9.80665f;
+
+  /**
+   * Smallest squared threshold without gravity, that of 1 m/s^2.
+   * Sensitivities at or below gravity would otherwise leave no threshold.
+   */
+  private static final double MIN_THRESHOLD_SQUARED = 1;
+
+  /**
+   * When the magnitude of total acceleration exceeds this
+   * value, the device is accelerating.
+   */
+  private int accelerationThreshold = DEFAULT_ACCELERATION_THRESHOLD;
+
+  private int gravityMode = GRAVITY_INCLUDED;
+
+  /** Square of the threshold that samples are compared against. */
+  private double thresholdSquared = thresholdSquared(accelerationThreshold, gravityMode);
+
+  private final GravityFilter gravityFilter = new GravityFilter();
+
+  /** Combines samples into queue entries when auto-tuning, otherwise null. */
+  private Decimator decimator;
+
+  /** Keeps raw samples for shake events, or null. */
+  private FlightRecorder flightRecorder;
+
+  /** Decides early in sequential mode, otherwise null. */
+  private SequentialTest sequentialTest;
+  private double sequentialConfidence = SequentialTest.DEFAULT_CONFIDENCE;
+
+  /** Listens for shakes. */
+  public interface Listener {
+    /** Called on the thread that delivered the sample when a shake is detected. */
+    void hearShake();
+  }
+
+  /** Listens for shakes and the window of samples that made them. */
+  public interface EventListener {
+    /**
+     * Called on the thread that delivered the sample when a shake is
+     * detected. {@code event} belongs to the seismometer and is refilled for
+     * the next shake.
+     */
+    void hearShake(ShakeEvent event);
+  }
+
+  private final SampleQueue queue = new SampleQueue();
+  private long windowNanos = DEFAULT_WINDOW_NANOS;
+  private int minQueueSize = DEFAULT_MIN_QUEUE_SIZE;
+  private final Listener listener;
+  private final EventListener eventListener;
+  private final ShakeEvent event;
+
+  /** Whether shake events describe the magnitudes in the window. */
+  private boolean magnitudeStatistics = true;
+
+  /** Whether the most recent sample was accelerating. */
+  private boolean accelerating;
+
+  /**
+   * Set by the first {@link #poll}. Until then, samples skip publishing
+   * their state.
+   */
+  private volatile boolean polled;
+
+  /**
+   * Seqlock over the published state below. Odd while the sample thread is
+   * writing it. Readers retry until they see the same even version before
+   * and after reading, so neither side ever blocks the other.
+   */
+  private volatile int stateVersion;
+  private volatile long stateTimestamp;
+  private volatile float stateAcceleratingRatio;
+  private volatile long stateWindowSpan;
+  private volatile float stateMagnitudeSquared;
+
+  public Seismometer(Listener listener) {
+    this.listener = listener;
+    this.eventListener = null;
+    this.event = null;
+  }
+
+  public Seismometer(EventListener eventListener) {
+    this.listener = null;
+    this.eventListener = eventListener;
+    this.event = new ShakeEvent();
+  }
+
+  @Override public void onSample(long timestampNanos, float x, float y, float z) {
+    if (flightRecorder != null) {
+      flightRecorder.onSample(timestampNanos, x, y, z);
+    }
+    double magnitudeSquared = magnitudeSquared(timestampNanos, x, y, z);
+    accelerating = magnitudeSquared > thresholdSquared;
+    boolean added = true;
+    if (decimator == null) {
+      queue.add(timestampNanos, accelerating, (float) magnitudeSquared);
+    } else if (decimator.add(timestampNanos, accelerating, magnitudeSquared)) {
+      queue.add(timestampNanos, decimator.count(), decimator.acceleratingCount(), decimator.magnitudeSquared());
+    } else {
+      // The queue is unchanged until the entry is complete.
+      added = false;
+    }
+    if (polled) {
+      publishState(timestampNanos, (float) magnitudeSquared);
+    }
+    // The sequential test sees every sample; it weights them by time itself.
+    boolean decided = sequentialTest != null
+        && sequentialTest.add(timestampNanos, accelerating, magnitudeSquared / thresholdSquared);
+    if (decided || (added && queue.isShaking())) {
+      if (sequentialTest != null) {
+        sequentialTest.reset();
+      }
+      if (flightRecorder == null) {
+        hearShake();
+        return;
+      }
+      FlightRecorder recorder = flightRecorder;
+      recorder.freeze();
+      try {
+        hearShake();
+      } finally {
+        recorder.thaw();
+      }
+    }
+  }
+
+  private void hearShake() {
+    if (eventListener != null) {
+      if (magnitudeStatistics) {
+        queue.fill(event);
+      } else {
+        queue.fillWindow(event);
+      }
+      event.recording = flightRecorder;
+      queue.clear();
+      eventListener.hearShake(event);
+    } else {
+      queue.clear();
+      listener.hearShake();
+    }
+  }
+
+  /** Feeds every remaining sample in {@code source} to {@link #onSample}. */
+  public void process(SampleSource source) {
+    while (source.next()) {
+      onSample(source.timestamp(), source.x(), source.y(), source.z());
+    }
+  }
+
+  /** Forgets all samples seen so far. */
+  public void reset() {
+    queue.clear();
+    gravityFilter.reset();
+    if (decimator != null) {
+      decimator.reset();
+    }
+    if (sequentialTest != null) {
+      sequentialTest.reset();
+    }
+    accelerating = false;
+    if (polled) {
+      publishState(0, 0f);
+    }
+  }
+
+  /**
+   * Fills {@code state} with the window as of the latest sample. Safe to call
+   * from any thread, for example once per frame from a render thread. It
+   * never blocks the thread delivering samples and doesn't allocate.
+   * Samples are only published once polling has started, so the first call
+   * may see an empty state.
+   */
+  public void poll(ShakeState state) {
+    polled = true;
+    int before;
+    int after;
+    do {
+      before = stateVersion;
+      state.set(stateTimestamp, stateAcceleratingRatio, stateWindowSpan, stateMagnitudeSquared);
+      after = stateVersion;
+    } while ((before & 1) != 0 || before != after);
+  }
+
+  private void publishState(long timestampNanos, float magnitudeSquared) {
+    int size = queue.sampleCount();
+    int version = stateVersion;
+    stateVersion = version + 1;
+    stateTimestamp = timestampNanos;
+    stateAcceleratingRatio = size == 0 ? 0f : (float) queue.acceleratingCount() / size;
+    stateWindowSpan = queue.spanNanos();
+    stateMagnitudeSquared = magnitudeSquared;
+    stateVersion = version + 2;
+  }
+
+  /**
+   * Fills {@code event} with the samples currently in the window, as if they
+   * were a shake. Useful for diagnostics and for classifiers that run
+   * between shakes. Doesn't allocate.
+   */
+  public void describeWindow(ShakeEvent event) {
+    queue.fill(event);
+    event.recording = null;
+  }
+
+  /**
+   * Sets whether shake events describe the magnitudes in the window. Doing
+   * so costs a square root and some bookkeeping per sample from the first
+   * shake on, which listeners that only need the window's bounds can skip.
+   * Defaults to true. {@link #describeWindow} always describes them.
+   */
+  void setMagnitudeStatistics(boolean magnitudeStatistics) {
+    this.magnitudeStatistics = magnitudeStatistics;
+  }
+
+  /** Number of samples in the window, however many entries hold them. For metrics. */
+  int windowSampleCount() {
+    return queue.sampleCount();
+  }
+
+  /**
+   * Number of entries in the window. Without auto-tuning each entry is one
+   * sample.
+   */
+  int queueSize() {
+    return queue.size();
+  }
+
+  /** Number of entries the window holds before it has to grow. For metrics. */
+  int queueCapacity() {
+    return queue.capacity();
+  }
+
+  /** Returns true if the most recent sample exceeded the acceleration threshold. */
+  public boolean isAccelerating() {
+    return accelerating;
+  }
+
+  /**
+   * Returns the square of the sample's acceleration. Instead of comparing
+   * magnitude to ACCELERATION_THRESHOLD, compare their squares. This is
+   * equivalent and doesn't need the actual magnitude, which would be computed
+   * using (expensive) Math.sqrt().
+   */
+  private double magnitudeSquared(long timestamp, float ax, float ay, float az) {
+    return gravityMode == GRAVITY_FILTERED
+        ? gravityFilter.linearMagnitudeSquared(timestamp, ax, ay, az)
+        : ax * ax + ay * ay + az * az;
+  }
+
+  /** Sets the acceleration threshold sensitivity. */
+  public void setSensitivity(int accelerationThreshold) {
+    this.accelerationThreshold = accelerationThreshold;
+    this.thresholdSquared = thresholdSquared(accelerationThreshold, gravityMode);
+  }
+
+  /**
+   * Sets whether samples include gravity. Sensitivities always describe
+   * total acceleration including gravity. Without gravity, they are rescaled
+   * so that shaking perpendicular to gravity, the usual case, needs the same
+   * force as before, while shaking in other directions no longer depends on
+   * how the device is held.
+   *
+   * @param gravityMode {@link #GRAVITY_INCLUDED}, {@link #GRAVITY_REMOVED} or
+   *     {@link #GRAVITY_FILTERED}
+   */
+  public void setGravityMode(int gravityMode) {
+    if (gravityMode != GRAVITY_INCLUDED && gravityMode != GRAVITY_REMOVED
+        && gravityMode != GRAVITY_FILTERED) {
+      throw new IllegalArgumentException("Unknown gravity mode: " + gravityMode);
+    }
+    this.gravityMode = gravityMode;
+    this.thresholdSquared = thresholdSquared(accelerationThreshold, gravityMode);
+    gravityFilter.reset();
+  }
+
+  private static double thresholdSquared(int accelerationThreshold, int gravityMode) {
+    double squared = (double) accelerationThreshold * accelerationThreshold;
+    if (gravityMode != GRAVITY_INCLUDED) {
+      // |g + a|^2 = g^2 + a^2 when a is perpendicular to g.
+      squared = Math.max(MIN_THRESHOLD_SQUARED, squared - STANDARD_GRAVITY * STANDARD_GRAVITY);
+    }
+    return squared;
+  }
+
+  /**
+   * Sets how long samples are kept. A shake needs samples spanning at least
+   * half of {@code windowNanos}. At least {@code minQueueSize} samples are
+   * kept however old they are, for devices that deliver few events. Defaults
+   * to 0.5s and 4 samples.
+   */
+  public void setWindow(long windowNanos, int minQueueSize) {
+    queue.setWindow(windowNanos, minQueueSize);
+    this.windowNanos = windowNanos;
+    this.minQueueSize = minQueueSize;
+    if (decimator != null) {
+      decimator.setWindow(windowNanos);
+    }
+    if (sequentialTest != null) {
+      sequentialTest.setWindow(windowNanos, minQueueSize);
+    }
+  }
+
+  /**
+   * Records raw samples in {@code flightRecorder} and hands it to
+   * {@link EventListener}s with each shake, or stops recording if null. The
+   * recorder is frozen while the listener runs. Listeners that keep the
+   * event past the callback must {@link FlightRecorder#freeze} it
+   * themselves.
+   */
+  public void setFlightRecorder(FlightRecorder flightRecorder) {
+    this.flightRecorder = flightRecorder;
+  }
+
+  /**
+   * Sets whether to also run a sequential test that reports a shake as soon
+   * as the samples so far are convincing, rather than waiting for them to
+   * span half the window. The test weighs how far samples exceed the
+   * threshold, so a vigorous shake is heard after about 120ms instead of
+   * 250ms or more, while handling that barely crosses the threshold is left
+   * to the window. Shakes the window would hear are still heard. Disabled by
+   * default.
+   */
+  public void setSequentialTest(boolean sequentialTest) {
+    if (sequentialTest == (this.sequentialTest != null)) {
+      return;
+    }
+    if (sequentialTest) {
+      this.sequentialTest = new SequentialTest();
+      this.sequentialTest.setWindow(windowNanos, minQueueSize);
+      this.sequentialTest.setConfidence(sequentialConfidence);
+    } else {
+      this.sequentialTest = null;
+    }
+  }
+
+  /**
+   * Sets how confident the sequential test must be that the device is
+   * shaking. About {@code 1 - confidence} of stretches of ordinary handling
+   * will be reported as shakes. Defaults to 0.9999.
+   */
+  public void setSequentialConfidence(double confidence) {
+    if (sequentialTest != null) {
+      sequentialTest.setConfidence(confidence);
+    } else if (!(confidence > 0 && confidence < 1)) {
+      throw new IllegalArgumentException("confidence not in (0, 1): " + confidence);
+    }
+    this.sequentialConfidence = confidence;
+  }
+
+  /**
+   * Sets whether the accelerating ratio counts time rather than samples.
+   * Each sample is weighted by the time since the previous one, up to a
+   * quarter of the window, so jittery or bursty delivery doesn't skew the
+   * ratio and slower sensor rates detect the same shakes. Disabled by
+   * default.
+   */
+  public void setTimeWeighted(boolean timeWeighted) {
+    queue.setTimeWeighted(timeWeighted);
+  }
+
+  /**
+   * Sets whether to measure the sample rate and size the queue to it. Fast
+   * sensors deliver far more samples than detection needs, 250 per window at
+   * 500Hz. When auto-tuning, runs of consecutive samples are combined into
+   * one entry so that the window holds about 32 entries, which bounds the
+   * queue's memory and work. Entries count their accelerating samples, so
+   * the accelerating ratio is still of samples and the same shakes are
+   * heard. Sensors slower than 128Hz with the default window are not
+   * combined, so slow devices and the minimum queue size behave as before.
+   * Disabled by default.
+   */
+  public void setAutoTune(boolean autoTune) {
+    if (autoTune == (decimator != null)) {
+      return;
+    }
+    if (autoTune) {
+      decimator = new Decimator();
+      decimator.setWindow(windowNanos);
+    } else {
+      decimator = null;
+    }
+    queue.clear();
+  }
+
+  /**
+   * Sets the fraction of samples in the window that must be accelerating for
+   * the device to be shaking. Defaults to 3/4.
+   */
+  public void setAcceleratingRatio(float acceleratingRatio) {
+    queue.setAcceleratingRatio(acceleratingRatio);
+  }
+}
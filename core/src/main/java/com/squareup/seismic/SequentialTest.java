@@ -0,0 +1,126 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/**
+ * Decides that the device is shaking as soon as the evidence is strong
+ * enough, rather than after half a window. Runs Wald's sequential
+ * probability ratio test, restarted whenever the evidence drops to zero
+ * (Page's CUSUM), between two hypotheses about each sample:
+ *
+ * <ul>
+ * <li>The device is being handled. Time is accelerating with probability
+ * {@link #HANDLING_PROBABILITY}, and accelerations rarely exceed the
+ * threshold by much: the squared ratio to it is Pareto distributed with
+ * shape {@link #HANDLING_SHAPE}.
+ * <li>The device is shaking. Time is accelerating with probability
+ * {@link #SHAKING_PROBABILITY}, and the ratio has the heavier tail of
+ * shape {@link #SHAKING_SHAPE}.
+ * </ul>
+ *
+ * <p>Each sample adds its log-likelihood ratio, weighted by the time it
+ * covers so that the sample rate doesn't matter. Vigorous shaking is decided
+ * quickly, while samples just over the threshold count against a shake and
+ * are left to the window. O(1) per sample.
+ */
+final class SequentialTest {
+
+  /** Confidence in a shake needed to report it. */
+  static final double DEFAULT_CONFIDENCE = 0.9999;
+
+  private static final double HANDLING_PROBABILITY = 0.5;
+  private static final double SHAKING_PROBABILITY = 0.95;
+  private static final double HANDLING_SHAPE = 4;
+  private static final double SHAKING_SHAPE = 1;
+
+  /** Squared ratios beyond this count as this, so a brief jolt can't decide alone. */
+  private static final double MAX_RATIO = 2.5;
+
+  /** Log-likelihood ratios per reference interval. */
+  private static final double ACCELERATING_EVIDENCE = Math.log(SHAKING_PROBABILITY / HANDLING_PROBABILITY)
+      + Math.log(SHAKING_SHAPE / HANDLING_SHAPE);
+  private static final double RATIO_EVIDENCE = HANDLING_SHAPE - SHAKING_SHAPE;
+  private static final double STILL_EVIDENCE =
+      Math.log((1 - SHAKING_PROBABILITY) / (1 - HANDLING_PROBABILITY));
+
+  /** Samples are weighted relative to this interval, SENSOR_DELAY_GAME's. */
+  private static final double REFERENCE_INTERVAL_NANOS = 20000000; // 20ms
+
+  /** Longest time a sample can cover, as in {@link SampleQueue}. */
+  private long maxDuration = SampleQueue.MAX_WINDOW_SIZE >> 2;
+
+  /** Evidence must span this long, half what the window needs, so a jolt has time to pass. */
+  private long minSpan = SampleQueue.MAX_WINDOW_SIZE >> 2;
+
+  /** Fewest samples to decide on, so that slow sensors need more than one. */
+  private int minSamples = SampleQueue.MIN_QUEUE_SIZE;
+
+  private double threshold = threshold(DEFAULT_CONFIDENCE);
+
+  private double evidence;
+  private int samples;
+  private long startTimestamp;
+  private long lastTimestamp;
+
+  /**
+   * Adds a sample. Returns true if the device is shaking.
+   *
+   * @param ratioSquared the sample's squared magnitude over the squared
+   *     acceleration threshold
+   */
+  boolean add(long timestamp, boolean accelerating, double ratioSquared) {
+    long duration = samples == 0 ? 0 : timestamp - lastTimestamp;
+    if (duration < 0) {
+      // The sensor restarted, as in SampleQueue.add().
+      reset();
+      duration = 0;
+    }
+    lastTimestamp = timestamp;
+
+    double weight = Math.min(duration, maxDuration) / REFERENCE_INTERVAL_NANOS;
+    if (accelerating) {
+      // Written so that NaN, like infinity, counts as the largest ratio.
+      double ratio = ratioSquared < MAX_RATIO ? ratioSquared : MAX_RATIO;
+      evidence += weight * (ACCELERATING_EVIDENCE + RATIO_EVIDENCE * Math.log(ratio));
+    } else {
+      evidence += weight * STILL_EVIDENCE;
+    }
+    if (evidence <= 0) {
+      // No evidence of shaking. Start over from this sample.
+      evidence = 0;
+      samples = 1;
+      startTimestamp = timestamp;
+      return false;
+    }
+    samples++;
+    return evidence >= threshold && samples >= minSamples && timestamp - startTimestamp >= minSpan;
+  }
+
+  void reset() {
+    evidence = 0;
+    samples = 0;
+  }
+
+  /**
+   * Sets the confidence needed to report a shake. The chance that handling
+   * is reported as a shake is about {@code 1 - confidence} each time the
+   * evidence starts to build.
+   */
+  void setConfidence(double confidence) {
+    if (!(confidence > 0 && confidence < 1)) {
+      throw new IllegalArgumentException("confidence not in (0, 1): " + confidence);
+    }
+    this.threshold = threshold(confidence);
+  }
+
+  /** Matches the window's limits. */
+  void setWindow(long windowNanos, int minQueueSize) {
+    this.maxDuration = windowNanos >> 2;
+    this.minSpan = windowNanos >> 2;
+    this.minSamples = minQueueSize;
+  }
+
+  /** Wald's upper bound, log((1 - beta) / alpha), with misses ignored. */
+  private static double threshold(double confidence) {
+    return Math.log(1 / (1 - confidence));
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/**
+ * Describes the window of samples that was detected as a shake. Detectors
+ * own one instance and refill it for every shake, so an event is only valid
+ * during the callback that receives it. Use {@link #copyFrom} to keep it.
+ *
+ * <p>Besides the counts, it carries statistics of the magnitudes of
+ * acceleration in the window for classifiers and diagnostics. Magnitudes
+ * exclude gravity when the detector removes it.
+ */
+public final class ShakeEvent {
+  // Filled by SampleQueue.
+  long windowStartNanos;
+  long windowEndNanos;
+  long accelerationStartNanos;
+  int sampleCount;
+  int acceleratingCount;
+  float peakMagnitudeSquared;
+  float meanMagnitudeSquared;
+  float meanMagnitude;
+  float magnitudeVariance;
+  float minMagnitude;
+  FlightRecording recording;
+
+  /** Copies every field of {@code other} into this event. */
+  public void copyFrom(ShakeEvent other) {
+    windowStartNanos = other.windowStartNanos;
+    windowEndNanos = other.windowEndNanos;
+    accelerationStartNanos = other.accelerationStartNanos;
+    sampleCount = other.sampleCount;
+    acceleratingCount = other.acceleratingCount;
+    peakMagnitudeSquared = other.peakMagnitudeSquared;
+    meanMagnitudeSquared = other.meanMagnitudeSquared;
+    meanMagnitude = other.meanMagnitude;
+    magnitudeVariance = other.magnitudeVariance;
+    minMagnitude = other.minMagnitude;
+    recording = other.recording;
+  }
+
+  /** Timestamp of the oldest sample in the window, in nanoseconds. */
+  public long windowStartNanos() {
+    return windowStartNanos;
+  }
+
+  /** Timestamp of the sample that completed the shake, in nanoseconds. */
+  public long windowEndNanos() {
+    return windowEndNanos;
+  }
+
+  /**
+   * Timestamp of the first accelerating sample in the window, about when the
+   * shaking that was heard began, in nanoseconds. The window's start if none
+   * was accelerating.
+   */
+  public long accelerationStartNanos() {
+    return accelerationStartNanos;
+  }
+
+  /** Number of samples in the window. */
+  public int sampleCount() {
+    return sampleCount;
+  }
+
+  /** Number of samples in the window that exceeded the acceleration threshold. */
+  public int acceleratingCount() {
+    return acceleratingCount;
+  }
+
+  /** Largest squared magnitude of acceleration in the window, in (m/s^2)^2. */
+  public float peakMagnitudeSquared() {
+    return peakMagnitudeSquared;
+  }
+
+  /** Mean squared magnitude of acceleration in the window, in (m/s^2)^2. */
+  public float meanMagnitudeSquared() {
+    return meanMagnitudeSquared;
+  }
+
+  /** Root mean square of the magnitudes in the window, a measure of its energy. */
+  public float rmsMagnitude() {
+    return (float) Math.sqrt(meanMagnitudeSquared);
+  }
+
+  /** Mean magnitude of acceleration in the window, in m/s^2. */
+  public float meanMagnitude() {
+    return meanMagnitude;
+  }
+
+  /** Population variance of the magnitudes in the window, in (m/s^2)^2. */
+  public float magnitudeVariance() {
+    return magnitudeVariance;
+  }
+
+  /** Smallest magnitude of acceleration in the window, in m/s^2. */
+  public float minMagnitude() {
+    return minMagnitude;
+  }
+
+  /** Largest magnitude of acceleration in the window, in m/s^2. */
+  public float maxMagnitude() {
+    return (float) Math.sqrt(peakMagnitudeSquared);
+  }
+
+  /**
+   * Raw samples leading up to the shake, or null if the detector has no
+   * {@link FlightRecorder}. Read it during the callback; recording resumes
+   * once the callback returns.
+   */
+  public FlightRecording recording() {
+    return recording;
+  }
+
+  @Override public String toString() {
+    return "ShakeEvent{windowStartNanos=" + windowStartNanos
+        + ", windowEndNanos=" + windowEndNanos
+        + ", accelerationStartNanos=" + accelerationStartNanos
+        + ", sampleCount=" + sampleCount
+        + ", acceleratingCount=" + acceleratingCount
+        + ", peakMagnitudeSquared=" + peakMagnitudeSquared
+        + ", meanMagnitudeSquared=" + meanMagnitudeSquared
+        + ", meanMagnitude=" + meanMagnitude
+        + ", magnitudeVariance=" + magnitudeVariance
+        + ", minMagnitude=" + minMagnitude
+        + '}';
+  }
+}
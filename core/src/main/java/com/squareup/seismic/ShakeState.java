@@ -0,0 +1,59 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/**
+ * How hard the device is shaking as of the latest sample. Filled by
+ * {@link Seismometer#poll}, typically once per frame. Callers own their
+ * instance and can reuse it, so polling doesn't allocate.
+ */
+public final class ShakeState {
+  private long timestampNanos;
+  private float acceleratingRatio;
+  private long windowSpanNanos;
+  private float magnitudeSquared;
+
+  void set(long timestampNanos, float acceleratingRatio, long windowSpanNanos,
+      float magnitudeSquared) {
+    this.timestampNanos = timestampNanos;
+    this.acceleratingRatio = acceleratingRatio;
+    this.windowSpanNanos = windowSpanNanos;
+    this.magnitudeSquared = magnitudeSquared;
+  }
+
+  /** Timestamp of the latest sample in nanoseconds, or 0 if there is none. */
+  public long timestampNanos() {
+    return timestampNanos;
+  }
+
+  /**
+   * Fraction of the samples in the window that are accelerating, from 0 to 1.
+   * A shake is heard once this reaches the accelerating ratio over a long
+   * enough window.
+   */
+  public float acceleratingRatio() {
+    return acceleratingRatio;
+  }
+
+  /** Time between the oldest and the latest sample in the window, in nanoseconds. */
+  public long windowSpanNanos() {
+    return windowSpanNanos;
+  }
+
+  /** Squared magnitude of the latest sample's acceleration, in (m/s^2)^2. */
+  public float magnitudeSquared() {
+    return magnitudeSquared;
+  }
+
+  /** Magnitude of the latest sample's acceleration, in m/s^2. */
+  public float magnitude() {
+    return (float) Math.sqrt(magnitudeSquared);
+  }
+
+  @Override public String toString() {
+    return "ShakeState{timestampNanos=" + timestampNanos
+        + ", acceleratingRatio=" + acceleratingRatio
+        + ", windowSpanNanos=" + windowSpanNanos
+        + ", magnitudeSquared=" + magnitudeSquared
+        + '}';
+  }
+}
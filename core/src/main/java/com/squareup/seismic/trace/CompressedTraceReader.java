@@ -0,0 +1,200 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.trace;
+
+import com.squareup.seismic.SampleSource;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a trace file written by {@link CompressedTraceWriter}. Samples are
+ * decoded as they are read, through a fixed buffer, so iterating doesn't
+ * allocate and traces of any size are fine. Unlike {@link TraceReader}, the
+ * number of records isn't known up front. Not thread safe.
+ *
+ * <p>{@link #next} skips markers, so replaying a trace sees samples only. Use
+ * {@link #nextRecord} and {@link #isMarker} to see markers too.
+ */
+public final class CompressedTraceReader implements SampleSource, Closeable {
+  private static final int BUFFER_SIZE = 65536;
+  private static final int AXES = 3;
+  private static final int BYTE_MASK = 0xff;
+
+  private final FileChannel channel;
+  private final String sensorName;
+  private final float sampleRateHz;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /** Bits of the current byte not read yet, in the low {@link #bitsLeft} bits. */
+  private int currentByte;
+  private int bitsLeft;
+
+  /** True once a read ran past the end of the file. */
+  private boolean exhausted;
+
+  /** True once the last record has been read. */
+  private boolean ended;
+
+  // The current record.
+  private long timestamp;
+  private boolean marker;
+  private float x;
+  private float y;
+  private float z;
+
+  // The previous sample, which the next is decoded against.
+  private long previousTimestamp;
+  private long previousInterval;
+  private final int[] previousAxes = new int[AXES];
+  private final int[] previousLeading = new int[AXES];
+  private final int[] previousTrailing = new int[AXES];
+
+  public CompressedTraceReader(File file) throws IOException {
+    channel = new RandomAccessFile(file, "r").getChannel();
+    try {
+      ByteBuffer header = TraceFormat.readHeader(channel, TraceFormat.COMPRESSED_MAGIC,
+          TraceFormat.COMPRESSED_VERSION, TraceFormat.COMPRESSED_VERSION);
+      sampleRateHz = header.getFloat(TraceFormat.SAMPLE_RATE_OFFSET);
+      sensorName = TraceFormat.sensorName(header);
+      channel.position(header.remaining());
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    buffer.limit(0);
+  }
+
+  /** Name of the sensor that produced this trace. */
+  public String sensorName() {
+    return sensorName;
+  }
+
+  /** Nominal rate of the samples in this trace, in Hz. */
+  public float sampleRateHz() {
+    return sampleRateHz;
+  }
+
+  @Override public boolean next() {
+    while (nextRecord()) {
+      if (!marker) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Moves to the next record, which may be a marker. */
+  public boolean nextRecord() {
+    if (ended) {
+      return false;
+    }
+    int code = 0;
+    while (code < TraceFormat.END_CODE && readBits(1) != 0) {
+      code++;
+    }
+    if (code == TraceFormat.MARKER_CODE) {
+      timestamp = readBits(Long.SIZE);
+      marker = true;
+      x = 0f;
+      y = 0f;
+      z = 0f;
+    } else if (code != TraceFormat.END_CODE) {
+      int width = TraceFormat.INTERVAL_CHANGE_BITS[code];
+      // Sign-extends the change. A width of 0 leaves it 0.
+      long change = width == 0 ? 0 : readBits(width) << (Long.SIZE - width) >> (Long.SIZE - width);
+      previousInterval += change;
+      previousTimestamp += previousInterval;
+      timestamp = previousTimestamp;
+      marker = false;
+      x = readAxis(0);
+      y = readAxis(1);
+      z = readAxis(2);
+    }
+    // A stream without an end code ends with its last whole record.
+    if (code == TraceFormat.END_CODE || exhausted) {
+      ended = true;
+      return false;
+    }
+    return true;
+  }
+
+  /** Returns true if the current record is a marker rather than a sample. */
+  public boolean isMarker() {
+    return marker;
+  }
+
+  /** Timestamp of the current sample, or of the event that the current marker marks. */
+  @Override public long timestamp() {
+    return timestamp;
+  }
+
+  @Override public float x() {
+    return x;
+  }
+
+  @Override public float y() {
+    return y;
+  }
+
+  @Override public float z() {
+    return z;
+  }
+
+  @Override public void close() throws IOException {
+    channel.close();
+  }
+
+  private float readAxis(int axis) {
+    int bits = previousAxes[axis];
+    if (readBits(1) != 0) {
+      if (readBits(1) != 0) {
+        int leading = (int) readBits(TraceFormat.LEADING_ZEROS_BITS);
+        int length = (int) readBits(TraceFormat.LENGTH_BITS) + 1;
+        previousLeading[axis] = leading;
+        previousTrailing[axis] = Integer.SIZE - leading - length;
+      }
+      int trailing = previousTrailing[axis];
+      bits ^= (int) readBits(Integer.SIZE - previousLeading[axis] - trailing) << trailing;
+      previousAxes[axis] = bits;
+    }
+    return Float.intBitsToFloat(bits);
+  }
+
+  /** Reads {@code count} bits, most significant first. Reads 0s past the end. */
+  private long readBits(int count) {
+    long value = 0;
+    while (count > 0) {
+      if (bitsLeft == 0) {
+        if (!buffer.hasRemaining() && !fill()) {
+          exhausted = true;
+          return 0;
+        }
+        currentByte = buffer.get() & BYTE_MASK;
+        bitsLeft = Byte.SIZE;
+      }
+      int take = Math.min(count, bitsLeft);
+      value = value << take | (currentByte >>> (bitsLeft - take)) & ((1 << take) - 1);
+      bitsLeft -= take;
+      count -= take;
+    }
+    return value;
+  }
+
+  /** Reads more of the file into the buffer. Returns false at the end of the file. */
+  private boolean fill() {
+    buffer.clear();
+    try {
+      int read;
+      do {
+        read = channel.read(buffer);
+      } while (read == 0);
+      buffer.flip();
+      return read > 0;
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read trace", e);
+    }
+  }
+}
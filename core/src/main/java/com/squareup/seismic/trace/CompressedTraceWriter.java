@@ -0,0 +1,231 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.trace;
+
+import com.squareup.seismic.SampleSink;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes accelerometer samples to a compressed trace file, without losing
+ * anything. A timestamp at a steady rate takes a bit, and an axis that
+ * hasn't changed takes a bit, so a device at rest takes about a third of
+ * {@link TraceWriter}'s 20 bytes per sample. See {@link TraceFormat} for the
+ * encoding. Not thread safe.
+ *
+ * @see CompressedTraceReader
+ */
+public final class CompressedTraceWriter implements SampleSink, Closeable {
+  /** Most bytes a record can take: a 70-bit timestamp and three 44-bit axes. */
+  static final int MAX_RECORD_BYTES = 26;
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final int AXES = 3;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /** A write that failed in {@link #onSample}, to be thrown by the next flush. */
+  private IOException failure;
+
+  /** Bytes written to the file so far. */
+  private long written;
+
+  /** Bits of the next byte, in the low {@link #pendingCount} bits. */
+  private int pendingBits;
+  private int pendingCount;
+
+  // The previous sample, which the next is encoded against.
+  private long previousTimestamp;
+  private long previousInterval;
+  private final int[] previousAxes = new int[AXES];
+  private final int[] previousLeading = new int[AXES];
+  private final int[] previousTrailing = new int[AXES];
+
+  /**
+   * Creates {@code file}, replacing any existing file, and writes the trace
+   * header to it.
+   *
+   * @param sensorName name of the sensor that produced the samples
+   * @param sampleRateHz nominal rate of the samples
+   */
+  public CompressedTraceWriter(File file, String sensorName, float sampleRateHz) throws IOException {
+    channel = new FileOutputStream(file).getChannel();
+    try {
+      writeFully(TraceFormat.encodeHeader(TraceFormat.COMPRESSED_MAGIC, TraceFormat.COMPRESSED_VERSION,
+          sensorName, sampleRateHz));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    } catch (RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    // No span to reuse until an axis changes.
+    for (int i = 0; i < AXES; i++) {
+      previousLeading[i] = Integer.SIZE;
+    }
+  }
+
+  /**
+   * Appends a sample. Failures to write are deferred to the next
+   * {@link #flush} or {@link #close}, since sinks can't throw.
+   */
+  @Override public void onSample(long timestampNanos, float x, float y, float z) {
+    try {
+      append(timestampNanos, x, y, z);
+    } catch (IOException e) {
+      failure = e;
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Appends a marker at {@code timestampNanos}, such as a shake that was
+   * heard. Readers skip markers unless asked for them.
+   */
+  public void mark(long timestampNanos) {
+    onSample(TraceFormat.markerTimestamp(timestampNanos), 0f, 0f, 0f);
+  }
+
+  /**
+   * Appends a record as {@link TraceWriter} would lay it out, where a
+   * negative timestamp is a marker's.
+   */
+  void append(long timestamp, float x, float y, float z) throws IOException {
+    if (buffer.remaining() < MAX_RECORD_BYTES) {
+      flushBuffer();
+    }
+    if (timestamp < 0) {
+      writeCode(TraceFormat.MARKER_CODE);
+      writeBits(TraceFormat.markerTimestamp(timestamp), Long.SIZE);
+      return;
+    }
+    writeTimestamp(timestamp);
+    writeAxis(0, x);
+    writeAxis(1, y);
+    writeAxis(2, z);
+  }
+
+  /** Bytes in the file once everything so far is flushed. */
+  long size() {
+    return written + buffer.position() + (pendingCount > 0 ? 1 : 0);
+  }
+
+  /**
+   * Writes buffered samples to the file. The last few bits of the latest
+   * sample stay buffered until {@link #close}.
+   */
+  public void flush() throws IOException {
+    if (failure != null) {
+      IOException e = failure;
+      failure = null;
+      throw e;
+    }
+    flushBuffer();
+  }
+
+  /** Ends the trace, flushes it and closes the file. */
+  @Override public void close() throws IOException {
+    try {
+      if (buffer.remaining() < MAX_RECORD_BYTES) {
+        flushBuffer();
+      }
+      writeCode(TraceFormat.END_CODE);
+      if (pendingCount > 0) {
+        writeBits(0, Byte.SIZE - pendingCount);
+      }
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void writeTimestamp(long timestamp) {
+    long interval = timestamp - previousTimestamp;
+    long change = interval - previousInterval;
+    previousTimestamp = timestamp;
+    previousInterval = interval;
+    if (change == 0) {
+      writeBits(0, 1);
+      return;
+    }
+    int code = 1;
+    while (!fits(change, TraceFormat.INTERVAL_CHANGE_BITS[code])) {
+      code++;
+    }
+    writeCode(code);
+    writeBits(change, TraceFormat.INTERVAL_CHANGE_BITS[code]);
+  }
+
+  /** Writes {@code value}'s bits XORed with the previous value's. */
+  private void writeAxis(int axis, float value) {
+    int bits = Float.floatToRawIntBits(value);
+    int xor = bits ^ previousAxes[axis];
+    previousAxes[axis] = bits;
+    if (xor == 0) {
+      writeBits(0, 1);
+      return;
+    }
+    int leading = Integer.numberOfLeadingZeros(xor);
+    int trailing = Integer.numberOfTrailingZeros(xor);
+    if (leading >= previousLeading[axis] && trailing >= previousTrailing[axis]) {
+      writeBits(TraceFormat.SAME_SPAN_CODE, 2);
+      writeBits(xor >>> previousTrailing[axis], Integer.SIZE - previousLeading[axis] - previousTrailing[axis]);
+    } else {
+      int length = Integer.SIZE - leading - trailing;
+      writeBits(TraceFormat.NEW_SPAN_CODE, 2);
+      writeBits(leading, TraceFormat.LEADING_ZEROS_BITS);
+      writeBits(length - 1, TraceFormat.LENGTH_BITS);
+      writeBits(xor >>> trailing, length);
+      previousLeading[axis] = leading;
+      previousTrailing[axis] = trailing;
+    }
+  }
+
+  /** Writes {@code code} ones, followed by a zero unless it is the longest code. */
+  private void writeCode(int code) {
+    long ones = (1L << code) - 1;
+    if (code == TraceFormat.END_CODE) {
+      writeBits(ones, code);
+    } else {
+      writeBits(ones << 1, code + 1);
+    }
+  }
+
+  /** Writes the low {@code count} bits of {@code value}, most significant first. */
+  private void writeBits(long value, int count) {
+    while (count > 0) {
+      int take = Math.min(count, Byte.SIZE - pendingCount);
+      int chunk = (int) (value >>> (count - take)) & ((1 << take) - 1);
+      pendingBits = pendingBits << take | chunk;
+      pendingCount += take;
+      count -= take;
+      if (pendingCount == Byte.SIZE) {
+        buffer.put((byte) pendingBits);
+        pendingBits = 0;
+        pendingCount = 0;
+      }
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    buffer.flip();
+    writeFully(buffer);
+    buffer.clear();
+  }
+
+  private void writeFully(ByteBuffer source) throws IOException {
+    while (source.hasRemaining()) {
+      written += channel.write(source);
+    }
+  }
+
+  /** Returns true if {@code value} fits in {@code bits} as a signed integer. */
+  private static boolean fits(long value, int bits) {
+    return bits == Long.SIZE || value >> (bits - 1) == value >> (Long.SIZE - 1);
+  }
+}
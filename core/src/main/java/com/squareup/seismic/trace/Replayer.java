@@ -0,0 +1,99 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.trace;
+
+import com.squareup.seismic.SampleSink;
+import com.squareup.seismic.SampleSource;
+import com.squareup.seismic.Seismometer;
+import java.util.Arrays;
+
+/**
+ * Replays recorded samples through a detector and collects the timestamps of
+ * the shakes it hears. Use it as the detector's listener:
+ *
+ * <pre>
+ * Replayer replayer = new Replayer();
+ * Seismometer seismometer = new Seismometer(replayer);
+ * replayer.replay(new TraceReader(file), seismometer);
+ * long[] shakes = replayer.shakeTimestamps();
+ * </pre>
+ *
+ * A shake's timestamp is that of the sample that completed it. Not thread
+ * safe; use one replayer per detector.
+ */
+public final class Replayer implements Seismometer.Listener {
+  private static final long NANOS_PER_MILLI = 1000000L;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private long[] shakes = new long[INITIAL_CAPACITY];
+  private int shakeCount;
+
+  /** Timestamp of the sample being fed to the detector. */
+  private long timestamp;
+
+  /** Feeds every sample in {@code source} to {@code detector} as fast as it can. */
+  public void replay(SampleSource source, SampleSink detector) {
+    while (source.next()) {
+      timestamp = source.timestamp();
+      detector.onSample(timestamp, source.x(), source.y(), source.z());
+    }
+  }
+
+  /**
+   * Feeds every sample in {@code source} to {@code detector} no sooner than
+   * it was recorded, relative to the first sample. A {@code speed} of 2 plays
+   * the trace twice as fast as it was recorded.
+   */
+  public void replayPaced(SampleSource source, SampleSink detector, double speed)
+      throws InterruptedException {
+    if (!(speed > 0)) {
+      throw new IllegalArgumentException("speed <= 0: " + speed);
+    }
+    long startNanos = System.nanoTime();
+    long firstTimestamp = 0;
+    boolean first = true;
+    while (source.next()) {
+      timestamp = source.timestamp();
+      if (first) {
+        firstTimestamp = timestamp;
+        first = false;
+      }
+      long dueNanos = startNanos + (long) ((timestamp - firstTimestamp) / speed);
+      long waitNanos = dueNanos - System.nanoTime();
+      while (waitNanos > 0) {
+        Thread.sleep(waitNanos / NANOS_PER_MILLI, (int) (waitNanos % NANOS_PER_MILLI));
+        waitNanos = dueNanos - System.nanoTime();
+      }
+      detector.onSample(timestamp, source.x(), source.y(), source.z());
+    }
+  }
+
+  @Override public void hearShake() {
+    if (shakeCount == shakes.length) {
+      shakes = Arrays.copyOf(shakes, shakeCount << 1);
+    }
+    shakes[shakeCount++] = timestamp;
+  }
+
+  /** Number of shakes heard since this replayer was created or cleared. */
+  public int shakeCount() {
+    return shakeCount;
+  }
+
+  /** Returns the timestamp of shake {@code index}, in the order they were heard. */
+  public long shakeTimestamp(int index) {
+    if (index < 0 || index >= shakeCount) {
+      throw new IndexOutOfBoundsException("index " + index + " of " + shakeCount);
+    }
+    return shakes[index];
+  }
+
+  /** Returns a copy of the timestamps of the shakes heard, in order. */
+  public long[] shakeTimestamps() {
+    return Arrays.copyOf(shakes, shakeCount);
+  }
+
+  /** Forgets the shakes heard so far, so this replayer can be reused. */
+  public void clear() {
+    shakeCount = 0;
+  }
+}
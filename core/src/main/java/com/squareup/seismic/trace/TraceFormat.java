@@ -0,0 +1,180 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Layout of an accelerometer trace file. All values are little-endian, the
+ * native order of the devices and machines that read and write traces.
+ *
+ * <pre>
+ * header:
+ *   int    magic            "SSMT"
+ *   short  version          2, or 1 for traces without markers
+ *   short  header size      offset of the first record, in bytes
+ *   float  sample rate      nominal rate the sensor was asked for, in Hz
+ *   short  name length      in bytes
+ *   byte[] sensor name      UTF-8
+ * records, until the end of the file:
+ *   long   timestamp        in nanoseconds, or ~timestamp for a marker
+ *   float  x, y, z          acceleration in m/s^2, or 0 for a marker
+ * </pre>
+ *
+ * A trailing partial record, left by a writer that didn't finish, is ignored.
+ * Sample timestamps are never negative, so a negative timestamp marks an
+ * event at its bitwise complement, such as a shake the detector heard.
+ *
+ * <p>Compressed traces have the same header with the magic "SSMC" and version
+ * 1, followed by a stream of bits, most significant first. Each sample's
+ * timestamp is encoded as the change in the interval since the previous
+ * sample, which is usually small, and each axis as the bits that differ from
+ * the previous sample's, as in Facebook's Gorilla:
+ *
+ * <pre>
+ * timestamp:
+ *   0                     same interval as before
+ *   10, 110, 1110, 11110  then the change in interval in 16, 24, 32 or 64 bits
+ *   111110                a marker: its timestamp in 64 bits, and no axes
+ *   111111                the end of the trace
+ * each axis, XORed with the same axis of the previous sample:
+ *   0                     no bits differ
+ *   10                    then the differing bits, within the previous span
+ *   11                    then 5 bits of leading zeros, 5 bits of length - 1,
+ *                         and the differing bits
+ * </pre>
+ *
+ * The first sample is encoded against a timestamp and axes of 0. A stream
+ * that ends without the end code was left by a writer that didn't finish;
+ * its last whole sample ends the trace.
+ */
+final class TraceFormat {
+  /** "SSMT" when read as little-endian bytes. */
+  static final int MAGIC = 0x544d5353;
+  static final short VERSION = 2;
+
+  /** Oldest version that readers accept. */
+  static final short MIN_VERSION = 1;
+
+  /** "SSMC" when read as little-endian bytes. */
+  static final int COMPRESSED_MAGIC = 0x434d5353;
+  static final short COMPRESSED_VERSION = 1;
+
+  /** Offsets of the header fields. */
+  static final int VERSION_OFFSET = 4;
+  static final int HEADER_SIZE_OFFSET = 6;
+  static final int SAMPLE_RATE_OFFSET = 8;
+  static final int NAME_LENGTH_OFFSET = 12;
+
+  /** Size of the header excluding the sensor name. */
+  static final int FIXED_HEADER_SIZE = 14;
+
+  /** Offsets of the record fields. The timestamp is at 0. */
+  static final int X_OFFSET = 8;
+  static final int Y_OFFSET = 12;
+  static final int Z_OFFSET = 16;
+
+  /** Size of one record in bytes. */
+  static final int RECORD_SIZE = 20;
+
+  static final int MAX_NAME_LENGTH = Short.MAX_VALUE;
+
+  /** Reads a short as unsigned. */
+  static final int UNSIGNED_SHORT_MASK = 0xffff;
+
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Width of the change in interval for each compressed timestamp code,
+   * indexed by the code's number of leading ones.
+   */
+  static final int[] INTERVAL_CHANGE_BITS = {0, 16, 24, 32, 64};
+  static final int MARKER_CODE = 5;
+  static final int END_CODE = 6;
+
+  /** Two-bit codes for a compressed axis whose bits differ. */
+  static final int SAME_SPAN_CODE = 2; // 10
+  static final int NEW_SPAN_CODE = 3; // 11
+  static final int LEADING_ZEROS_BITS = 5;
+  static final int LENGTH_BITS = 5;
+
+  private TraceFormat() {
+  }
+
+  /** Encodes a marker's timestamp so that it can't be mistaken for a sample's. */
+  static long markerTimestamp(long timestampNanos) {
+    return ~timestampNanos;
+  }
+
+  /** Appends a record to {@code buffer}, which must have room for it. */
+  static void putRecord(ByteBuffer buffer, long timestamp, float x, float y, float z) {
+    buffer.putLong(timestamp);
+    buffer.putFloat(x);
+    buffer.putFloat(y);
+    buffer.putFloat(z);
+  }
+
+  /** Returns a buffer holding the header for a trace of {@code sensorName}. */
+  static ByteBuffer encodeHeader(String sensorName, float sampleRateHz) {
+    return encodeHeader(MAGIC, VERSION, sensorName, sampleRateHz);
+  }
+
+  static ByteBuffer encodeHeader(int magic, short version, String sensorName, float sampleRateHz) {
+    byte[] name = sensorName.getBytes(UTF_8);
+    if (name.length > MAX_NAME_LENGTH) {
+      throw new IllegalArgumentException("Sensor name too long: " + sensorName);
+    }
+    int headerSize = FIXED_HEADER_SIZE + name.length;
+    ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(magic);
+    header.putShort(version);
+    header.putShort((short) headerSize);
+    header.putFloat(sampleRateHz);
+    header.putShort((short) name.length);
+    header.put(name);
+    header.flip();
+    return header;
+  }
+
+  /**
+   * Reads the header of the trace in {@code channel}, checking that it has
+   * {@code magic} and a version from {@code minVersion} to {@code maxVersion}.
+   */
+  static ByteBuffer readHeader(FileChannel channel, int magic, short minVersion, short maxVersion)
+      throws IOException {
+    ByteBuffer fixed = read(channel, 0, FIXED_HEADER_SIZE);
+    if (fixed.getInt(0) != magic) {
+      throw new IOException("Not a trace file");
+    }
+    short version = fixed.getShort(VERSION_OFFSET);
+    if (version < minVersion || version > maxVersion) {
+      throw new IOException("Unsupported trace version " + version);
+    }
+    int headerSize = fixed.getShort(HEADER_SIZE_OFFSET) & UNSIGNED_SHORT_MASK;
+    if (headerSize < FIXED_HEADER_SIZE
+        || FIXED_HEADER_SIZE + (fixed.getShort(NAME_LENGTH_OFFSET) & UNSIGNED_SHORT_MASK) > headerSize) {
+      throw new IOException("Corrupt trace header");
+    }
+    return read(channel, 0, headerSize);
+  }
+
+  /** Name of the sensor in a header returned by {@link #readHeader}. */
+  static String sensorName(ByteBuffer header) {
+    int nameLength = header.getShort(NAME_LENGTH_OFFSET) & UNSIGNED_SHORT_MASK;
+    return new String(header.array(), FIXED_HEADER_SIZE, nameLength, UTF_8);
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) == -1) {
+        throw new IOException("Not a trace file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
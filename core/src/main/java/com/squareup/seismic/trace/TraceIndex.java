@@ -0,0 +1,332 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.trace;
+
+import com.squareup.seismic.SampleSink;
+import com.squareup.seismic.Seismometer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Summarizes each block of {@link #BLOCK_RECORDS} records in a trace, so that
+ * queries can skip the blocks that can't match them. For each block this
+ * keeps the range of its timestamps and squared magnitudes, and how many of
+ * its samples are accelerating at each standard sensitivity. Summaries take
+ * 40 bytes per block, about 0.2% of the trace.
+ *
+ * <p>Indexes are kept next to their traces in {@code name.trace.index}. Use
+ * {@link #load} to read one, building and writing it first if it is missing
+ * or stale:
+ *
+ * <pre>
+ * TraceIndex index = TraceIndex.load(file);
+ * TraceReader reader = new TraceReader(file);
+ * index.scan(reader, 0, Long.MAX_VALUE, Seismometer.SENSITIVITY_HARD, sink);
+ * </pre>
+ *
+ * Magnitudes include gravity, as recorded. Only uncompressed traces can be
+ * indexed, since compressed ones can't be read from the middle.
+ */
+public final class TraceIndex {
+  /** Records per block, markers included. 20 KiB of trace, 2.5s at 400Hz. */
+  public static final int BLOCK_RECORDS = 1024;
+
+  static final String SUFFIX = ".index";
+
+  /** "SSMI" when read as little-endian bytes. */
+  private static final int MAGIC = 0x494d5353;
+  private static final short VERSION = 1;
+
+  /** Magic, version, padding, record count, records per block and block count. */
+  private static final int HEADER_SIZE = 24;
+  private static final int BLOCK_SIZE = 40;
+
+  private static final int[] SENSITIVITIES = {
+      Seismometer.SENSITIVITY_LIGHT, Seismometer.SENSITIVITY_MEDIUM, Seismometer.SENSITIVITY_HARD
+  };
+
+  private final long recordCount;
+  private final int blockCount;
+  private final long[] minTimestamps;
+  private final long[] maxTimestamps;
+  private final int[] sampleCounts;
+  private final float[] minMagnitudesSquared;
+  private final float[] maxMagnitudesSquared;
+
+  /** Accelerating counts, {@link #SENSITIVITIES} per block. */
+  private final int[] acceleratingCounts;
+
+  private TraceIndex(long recordCount) {
+    this.recordCount = recordCount;
+    long blocks = (recordCount + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+    if (blocks > Integer.MAX_VALUE / SENSITIVITIES.length) {
+      throw new IllegalArgumentException("Trace too large to index: " + recordCount + " records");
+    }
+    blockCount = (int) blocks;
+    minTimestamps = new long[blockCount];
+    maxTimestamps = new long[blockCount];
+    sampleCounts = new int[blockCount];
+    minMagnitudesSquared = new float[blockCount];
+    maxMagnitudesSquared = new float[blockCount];
+    acceleratingCounts = new int[blockCount * SENSITIVITIES.length];
+  }
+
+  /** Indexes every record of {@code reader}, leaving it at the end of the trace. */
+  public static TraceIndex build(TraceReader reader) {
+    TraceIndex index = new TraceIndex(reader.recordCount());
+    float[] thresholdsSquared = new float[SENSITIVITIES.length];
+    for (int i = 0; i < SENSITIVITIES.length; i++) {
+      thresholdsSquared[i] = SENSITIVITIES[i] * SENSITIVITIES[i];
+    }
+    reader.seek(0);
+    for (int block = 0; block < index.blockCount; block++) {
+      long minTimestamp = Long.MAX_VALUE;
+      long maxTimestamp = Long.MIN_VALUE;
+      float minMagnitudeSquared = Float.POSITIVE_INFINITY;
+      float maxMagnitudeSquared = Float.NEGATIVE_INFINITY;
+      int samples = 0;
+      for (int i = 0; i < BLOCK_RECORDS && reader.nextRecord(); i++) {
+        if (reader.isMarker()) {
+          continue;
+        }
+        long timestamp = reader.timestamp();
+        float magnitudeSquared = magnitudeSquared(reader);
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        minMagnitudeSquared = Math.min(minMagnitudeSquared, magnitudeSquared);
+        maxMagnitudeSquared = Math.max(maxMagnitudeSquared, magnitudeSquared);
+        for (int j = 0; j < SENSITIVITIES.length; j++) {
+          if (magnitudeSquared > thresholdsSquared[j]) {
+            index.acceleratingCounts[block * SENSITIVITIES.length + j]++;
+          }
+        }
+        samples++;
+      }
+      index.minTimestamps[block] = minTimestamp;
+      index.maxTimestamps[block] = maxTimestamp;
+      index.minMagnitudesSquared[block] = minMagnitudeSquared;
+      index.maxMagnitudesSquared[block] = maxMagnitudeSquared;
+      index.sampleCounts[block] = samples;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index of {@code trace}, reading it from its index file. If
+   * that is missing, or older than the trace, the index is built and the
+   * index file rewritten.
+   */
+  public static TraceIndex load(File trace) throws IOException {
+    File file = indexFile(trace);
+    TraceReader reader = new TraceReader(trace);
+    try {
+      if (file.exists() && file.lastModified() >= trace.lastModified()) {
+        TraceIndex index = read(file);
+        if (index != null && index.recordCount == reader.recordCount()) {
+          return index;
+        }
+      }
+      TraceIndex index = build(reader);
+      index.write(file);
+      return index;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** Returns the file that holds the index of {@code trace}. */
+  public static File indexFile(File trace) {
+    return new File(trace.getPath() + SUFFIX);
+  }
+
+  /** Writes this index to {@code file}, replacing any existing file. */
+  public void write(File file) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + blockCount * BLOCK_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putShort((short) 0);
+    buffer.putLong(recordCount);
+    buffer.putInt(BLOCK_RECORDS);
+    buffer.putInt(blockCount);
+    for (int block = 0; block < blockCount; block++) {
+      buffer.putLong(minTimestamps[block]);
+      buffer.putLong(maxTimestamps[block]);
+      buffer.putInt(sampleCounts[block]);
+      buffer.putFloat(minMagnitudesSquared[block]);
+      buffer.putFloat(maxMagnitudesSquared[block]);
+      for (int i = 0; i < SENSITIVITIES.length; i++) {
+        buffer.putInt(acceleratingCounts[block * SENSITIVITIES.length + i]);
+      }
+    }
+    buffer.flip();
+    FileChannel channel = new FileOutputStream(file).getChannel();
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  /** Reads an index written by {@link #write}, or returns null if it isn't one this can read. */
+  static TraceIndex read(File file) throws IOException {
+    FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+    try {
+      long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        return null;
+      }
+      ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) == -1) {
+          return null;
+        }
+      }
+      buffer.flip();
+      if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+        return null;
+      }
+      buffer.getShort();
+      long recordCount = buffer.getLong();
+      int blockRecords = buffer.getInt();
+      int blockCount = buffer.getInt();
+      if (recordCount < 0 || blockRecords != BLOCK_RECORDS
+          || (recordCount + BLOCK_RECORDS - 1) / BLOCK_RECORDS != blockCount
+          || buffer.remaining() != (long) blockCount * BLOCK_SIZE) {
+        return null;
+      }
+      TraceIndex index = new TraceIndex(recordCount);
+      for (int block = 0; block < blockCount; block++) {
+        index.minTimestamps[block] = buffer.getLong();
+        index.maxTimestamps[block] = buffer.getLong();
+        index.sampleCounts[block] = buffer.getInt();
+        index.minMagnitudesSquared[block] = buffer.getFloat();
+        index.maxMagnitudesSquared[block] = buffer.getFloat();
+        for (int i = 0; i < SENSITIVITIES.length; i++) {
+          index.acceleratingCounts[block * SENSITIVITIES.length + i] = buffer.getInt();
+        }
+      }
+      return index;
+    } finally {
+      channel.close();
+    }
+  }
+
+  /** Number of records in the indexed trace, including markers. */
+  public long recordCount() {
+    return recordCount;
+  }
+
+  public int blockCount() {
+    return blockCount;
+  }
+
+  /** Number of samples in {@code block}, excluding markers. */
+  public int sampleCount(int block) {
+    return sampleCounts[checkBlock(block)];
+  }
+
+  /** Earliest timestamp in {@code block}, or Long.MAX_VALUE if it has no samples. */
+  public long minTimestamp(int block) {
+    return minTimestamps[checkBlock(block)];
+  }
+
+  /** Latest timestamp in {@code block}, or Long.MIN_VALUE if it has no samples. */
+  public long maxTimestamp(int block) {
+    return maxTimestamps[checkBlock(block)];
+  }
+
+  public float minMagnitudeSquared(int block) {
+    return minMagnitudesSquared[checkBlock(block)];
+  }
+
+  public float maxMagnitudeSquared(int block) {
+    return maxMagnitudesSquared[checkBlock(block)];
+  }
+
+  /**
+   * Number of samples in {@code block} that a {@link Seismometer} would find
+   * accelerating at {@code sensitivity}, which must be one of its
+   * SENSITIVITY constants.
+   */
+  public int acceleratingCount(int block, int sensitivity) {
+    checkBlock(block);
+    for (int i = 0; i < SENSITIVITIES.length; i++) {
+      if (SENSITIVITIES[i] == sensitivity) {
+        return acceleratingCounts[block * SENSITIVITIES.length + i];
+      }
+    }
+    throw new IllegalArgumentException("Not a standard sensitivity: " + sensitivity);
+  }
+
+  /**
+   * Returns the first block from {@code block} on that may hold a sample
+   * taken from {@code fromNanos} to {@code toNanos} inclusive whose magnitude
+   * exceeds {@code minMagnitude}, or -1 if none can.
+   */
+  public int nextBlock(int block, long fromNanos, long toNanos, float minMagnitude) {
+    double minMagnitudeSquared = (double) minMagnitude * minMagnitude;
+    for (int i = Math.max(block, 0); i < blockCount; i++) {
+      if (sampleCounts[i] > 0
+          && minTimestamps[i] <= toNanos && maxTimestamps[i] >= fromNanos
+          && maxMagnitudesSquared[i] > minMagnitudeSquared) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Feeds {@code sink} every sample of {@code reader} taken from
+   * {@code fromNanos} to {@code toNanos} inclusive whose magnitude exceeds
+   * {@code minMagnitude}, in trace order. Only the blocks that may hold such
+   * samples are read. Returns the number of samples fed.
+   *
+   * @param reader a reader of the trace this index was built from
+   */
+  public long scan(TraceReader reader, long fromNanos, long toNanos, float minMagnitude,
+      SampleSink sink) {
+    if (reader.recordCount() != recordCount) {
+      throw new IllegalArgumentException("Index of " + recordCount + " records, trace of "
+          + reader.recordCount());
+    }
+    double minMagnitudeSquared = (double) minMagnitude * minMagnitude;
+    long count = 0;
+    for (int block = nextBlock(0, fromNanos, toNanos, minMagnitude); block != -1;
+        block = nextBlock(block + 1, fromNanos, toNanos, minMagnitude)) {
+      reader.seek((long) block * BLOCK_RECORDS);
+      for (int i = 0; i < BLOCK_RECORDS && reader.nextRecord(); i++) {
+        if (reader.isMarker()) {
+          continue;
+        }
+        long timestamp = reader.timestamp();
+        if (timestamp >= fromNanos && timestamp <= toNanos && magnitudeSquared(reader) > minMagnitudeSquared) {
+          sink.onSample(timestamp, reader.x(), reader.y(), reader.z());
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /** Computed as {@link Seismometer} does, so that counts match its. */
+  private static float magnitudeSquared(TraceReader reader) {
+    float x = reader.x();
+    float y = reader.y();
+    float z = reader.z();
+    return x * x + y * y + z * z;
+  }
+
+  private int checkBlock(int block) {
+    if (block < 0 || block >= blockCount) {
+      throw new IndexOutOfBoundsException("block " + block + " not in [0, " + blockCount + ")");
+    }
+    return block;
+  }
+}
@@ -0,0 +1,150 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.trace;
+
+import com.squareup.seismic.SampleSource;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a trace file written by {@link TraceWriter} or {@link TraceRecorder}.
+ * The file is memory-mapped and records are read in place, so iterating
+ * doesn't allocate and traces larger than the heap, or larger than 2 GiB,
+ * are fine. Not thread safe.
+ *
+ * <p>{@link #next} skips markers, so replaying a trace sees samples only. Use
+ * {@link #nextRecord} and {@link #isMarker} to see markers too.
+ */
+public final class TraceReader implements SampleSource, Closeable {
+  /** Records per mapping. Keeps each mapping well under the 2 GiB limit. */
+  private static final long SEGMENT_RECORDS = 32L * 1024 * 1024;
+
+  private final FileChannel channel;
+  private final String sensorName;
+  private final float sampleRateHz;
+  private final long recordsOffset;
+  private final long recordCount;
+
+  /** Mapping of the records starting at {@link #segmentStart}. */
+  private MappedByteBuffer segment;
+  private long segmentStart;
+  private long segmentEnd;
+
+  /** Index of the current record. */
+  private long index = -1;
+
+  /** Offset of the current record within {@link #segment}. */
+  private int offset;
+
+  public TraceReader(File file) throws IOException {
+    channel = new RandomAccessFile(file, "r").getChannel();
+    try {
+      ByteBuffer header = TraceFormat.readHeader(channel, TraceFormat.MAGIC, TraceFormat.MIN_VERSION,
+          TraceFormat.VERSION);
+      int headerSize = header.remaining();
+      sampleRateHz = header.getFloat(TraceFormat.SAMPLE_RATE_OFFSET);
+      sensorName = TraceFormat.sensorName(header);
+      recordsOffset = headerSize;
+      recordCount = (channel.size() - headerSize) / TraceFormat.RECORD_SIZE;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** Name of the sensor that produced this trace. */
+  public String sensorName() {
+    return sensorName;
+  }
+
+  /** Nominal rate of the samples in this trace, in Hz. */
+  public float sampleRateHz() {
+    return sampleRateHz;
+  }
+
+  /** Number of records in this trace, including markers. */
+  public long recordCount() {
+    return recordCount;
+  }
+
+  @Override public boolean next() {
+    while (nextRecord()) {
+      if (!isMarker()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Moves to the next record, which may be a marker. */
+  public boolean nextRecord() {
+    if (index + 1 >= recordCount) {
+      index = recordCount;
+      return false;
+    }
+    index++;
+    if (index < segmentStart || index >= segmentEnd) {
+      try {
+        map(index);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to map trace", e);
+      }
+    }
+    offset = (int) (index - segmentStart) * TraceFormat.RECORD_SIZE;
+    return true;
+  }
+
+  /**
+   * Moves just before record {@code index}, counting markers, so that the
+   * next call to {@link #next} or {@link #nextRecord} reads it or the first
+   * sample after it.
+   */
+  public void seek(long index) {
+    if (index < 0 || index > recordCount) {
+      throw new IndexOutOfBoundsException("index " + index + " not in [0, " + recordCount + "]");
+    }
+    this.index = index - 1;
+  }
+
+  /** Returns true if the current record is a marker rather than a sample. */
+  public boolean isMarker() {
+    return segment.getLong(offset) < 0;
+  }
+
+  /** Timestamp of the current sample, or of the event that the current marker marks. */
+  @Override public long timestamp() {
+    long timestamp = segment.getLong(offset);
+    return timestamp < 0 ? TraceFormat.markerTimestamp(timestamp) : timestamp;
+  }
+
+  @Override public float x() {
+    return segment.getFloat(offset + TraceFormat.X_OFFSET);
+  }
+
+  @Override public float y() {
+    return segment.getFloat(offset + TraceFormat.Y_OFFSET);
+  }
+
+  @Override public float z() {
+    return segment.getFloat(offset + TraceFormat.Z_OFFSET);
+  }
+
+  @Override public void close() throws IOException {
+    channel.close();
+  }
+
+  /** Maps the segment that starts with record {@code first}. */
+  private void map(long first) throws IOException {
+    long count = Math.min(SEGMENT_RECORDS, recordCount - first);
+    segment = channel.map(FileChannel.MapMode.READ_ONLY,
+        recordsOffset + first * TraceFormat.RECORD_SIZE, count * TraceFormat.RECORD_SIZE);
+    segment.order(ByteOrder.LITTLE_ENDIAN);
+    segmentStart = first;
+    segmentEnd = first + count;
+  }
+}
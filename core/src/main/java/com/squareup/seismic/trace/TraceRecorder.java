@@ -0,0 +1,295 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.trace;
+
+import com.squareup.seismic.SampleSink;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records samples on a device to a directory of trace files without ever
+ * blocking the thread that delivers them. Samples are appended to one of two
+ * direct buffers; a full buffer is handed to a background thread, which
+ * writes it while the other fills. If the disk falls so far behind that both
+ * buffers are full, the newer buffer's samples are dropped and counted in
+ * {@link #droppedBuffers}, so memory stays bounded at two buffers.
+ *
+ * <p>A new file is started whenever the current one would grow past
+ * {@code maxFileBytes}, so old files can be deleted or uploaded while
+ * recording continues. Files are named {@code <prefix>-<n>.trace} with
+ * {@code n} counting from 0, and each is a complete trace that
+ * {@link TraceReader} can read. Compressed recordings are named
+ * {@code <prefix>-<n>.ctrace} instead, for {@link CompressedTraceReader}.
+ * They are compressed on the writer thread, so compression costs the sensor
+ * thread nothing.
+ *
+ * <p>{@link #onSample}, {@link #mark} and {@link #close} must be called on
+ * one thread, usually the sensor thread.
+ */
+public final class TraceRecorder implements SampleSink, Closeable {
+  static final String SUFFIX = ".trace";
+  static final String COMPRESSED_SUFFIX = ".ctrace";
+
+  private static final int BUFFER_RECORDS = 4096;
+
+  private final File directory;
+  private final String prefix;
+  private final String sensorName;
+  private final float sampleRateHz;
+  private final long maxFileBytes;
+  private final boolean compressed;
+
+  /** Header of uncompressed files. */
+  private final ByteBuffer header;
+
+  /** The buffer being filled. Only touched by the recording thread. */
+  private ByteBuffer active;
+
+  /** A full, flipped buffer waiting to be written, or null. */
+  private final AtomicReference<ByteBuffer> full = new AtomicReference<ByteBuffer>();
+
+  /** An empty buffer ready to be filled, or null while the writer holds it. */
+  private final AtomicReference<ByteBuffer> empty = new AtomicReference<ByteBuffer>();
+
+  /** Incremented only by the recording thread. */
+  private volatile int droppedBuffers;
+
+  private volatile boolean closed;
+
+  /** The failure that stopped the writer, thrown by {@link #close}. */
+  private volatile IOException failure;
+
+  private final Thread writer;
+
+  // Only touched by the writer thread once it starts. Either the channel or
+  // the encoder is the current file.
+  private FileChannel channel;
+  private CompressedTraceWriter encoder;
+  private long fileBytes;
+  private long fileRecords;
+  private int fileCount;
+
+  /** Records uncompressed traces. */
+  public TraceRecorder(File directory, String prefix, String sensorName, float sampleRateHz,
+      long maxFileBytes) throws IOException {
+    this(directory, prefix, sensorName, sampleRateHz, maxFileBytes, false);
+  }
+
+  /**
+   * Creates the first file in {@code directory} and starts the writer thread.
+   *
+   * @param prefix start of each file's name. Files with the same names are
+   *     replaced, so use a new prefix for each recording, such as one that
+   *     includes the time it started.
+   * @param sensorName name of the sensor that produces the samples
+   * @param sampleRateHz nominal rate of the samples
+   * @param maxFileBytes size at which to start a new file. Files hold at
+   *     least one sample, however small this is.
+   * @param compressed true to write files with {@link CompressedTraceWriter}
+   */
+  public TraceRecorder(File directory, String prefix, String sensorName, float sampleRateHz,
+      long maxFileBytes, boolean compressed) throws IOException {
+    if (maxFileBytes <= 0) {
+      throw new IllegalArgumentException("maxFileBytes <= 0: " + maxFileBytes);
+    }
+    this.directory = directory;
+    this.prefix = prefix;
+    this.sensorName = sensorName;
+    this.sampleRateHz = sampleRateHz;
+    this.maxFileBytes = maxFileBytes;
+    this.compressed = compressed;
+    this.header = TraceFormat.encodeHeader(sensorName, sampleRateHz);
+    active = allocate();
+    empty.set(allocate());
+    nextFile();
+    writer = new Thread(new Runnable() {
+      @Override public void run() {
+        write();
+      }
+    }, "TraceRecorder");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /** Appends a sample. Never blocks. */
+  @Override public void onSample(long timestampNanos, float x, float y, float z) {
+    if (closed) {
+      return;
+    }
+    if (!active.hasRemaining()) {
+      handOff();
+    }
+    TraceFormat.putRecord(active, timestampNanos, x, y, z);
+  }
+
+  /** Appends a marker at {@code timestampNanos}, such as a shake that was heard. */
+  public void mark(long timestampNanos) {
+    onSample(TraceFormat.markerTimestamp(timestampNanos), 0f, 0f, 0f);
+  }
+
+  /** Number of full buffers dropped because the writer couldn't keep up. */
+  public int droppedBuffers() {
+    return droppedBuffers;
+  }
+
+  /**
+   * Writes the samples so far, waits for the writer thread to finish and
+   * closes the current file. Throws the first failure to write, if any;
+   * samples after it were discarded.
+   */
+  @Override public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    active.flip();
+    // The writer holds the spare buffer until the last full one is written.
+    while (full.get() != null && writer.isAlive()) {
+      LockSupport.unpark(writer);
+      Thread.yield();
+    }
+    full.set(active);
+    closed = true;
+    LockSupport.unpark(writer);
+    boolean interrupted = false;
+    while (writer.isAlive()) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /** Hands the active buffer to the writer, or drops its samples if the writer is behind. */
+  private void handOff() {
+    ByteBuffer spare = empty.getAndSet(null);
+    if (spare == null) {
+      droppedBuffers++;
+      active.clear();
+      return;
+    }
+    active.flip();
+    full.set(active);
+    LockSupport.unpark(writer);
+    active = spare;
+  }
+
+  /** Runs on the writer thread until closed. */
+  private void write() {
+    while (true) {
+      // Read before taking the full buffer: close() hands over its last
+      // buffer before setting closed, so once closed is seen, that buffer is
+      // either taken below or was taken already.
+      boolean done = closed;
+      ByteBuffer buffer = full.getAndSet(null);
+      if (buffer != null) {
+        if (failure == null) {
+          try {
+            writeRecords(buffer);
+          } catch (IOException e) {
+            failure = e;
+          }
+        }
+        buffer.clear();
+        empty.set(buffer);
+      } else if (done) {
+        break;
+      } else {
+        LockSupport.park(this);
+      }
+    }
+    try {
+      closeFile();
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+  }
+
+  /** Writes {@code buffer}'s records, starting new files as they fill. */
+  private void writeRecords(ByteBuffer buffer) throws IOException {
+    if (compressed) {
+      compressRecords(buffer);
+      return;
+    }
+    int limit = buffer.limit();
+    while (buffer.hasRemaining()) {
+      long room = (maxFileBytes - fileBytes) / TraceFormat.RECORD_SIZE * TraceFormat.RECORD_SIZE;
+      if (room <= 0) {
+        if (fileRecords > 0) {
+          nextFile();
+          continue;
+        }
+        room = TraceFormat.RECORD_SIZE;
+      }
+      buffer.limit((int) Math.min(limit, buffer.position() + room));
+      int written = writeFully(buffer);
+      fileBytes += written;
+      fileRecords += written / TraceFormat.RECORD_SIZE;
+      buffer.limit(limit);
+    }
+  }
+
+  private void compressRecords(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      // Leaves room for the record and the end code.
+      if (fileRecords > 0 && encoder.size() + CompressedTraceWriter.MAX_RECORD_BYTES + 1 > maxFileBytes) {
+        nextFile();
+      }
+      encoder.append(buffer.getLong(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+      fileRecords++;
+    }
+  }
+
+  /** Closes the current file, if any, and starts the next. */
+  private void nextFile() throws IOException {
+    closeFile();
+    File file = new File(directory, prefix + "-" + fileCount + (compressed ? COMPRESSED_SUFFIX : SUFFIX));
+    fileCount++;
+    fileRecords = 0;
+    if (compressed) {
+      encoder = new CompressedTraceWriter(file, sensorName, sampleRateHz);
+    } else {
+      channel = new FileOutputStream(file).getChannel();
+      fileBytes = writeFully(header.duplicate());
+    }
+  }
+
+  private void closeFile() throws IOException {
+    if (channel != null) {
+      FileChannel channel = this.channel;
+      this.channel = null;
+      channel.close();
+    }
+    if (encoder != null) {
+      CompressedTraceWriter encoder = this.encoder;
+      this.encoder = null;
+      encoder.close();
+    }
+  }
+
+  private int writeFully(ByteBuffer source) throws IOException {
+    int written = 0;
+    while (source.hasRemaining()) {
+      written += channel.write(source);
+    }
+    return written;
+  }
+
+  private static ByteBuffer allocate() {
+    return ByteBuffer.allocateDirect(BUFFER_RECORDS * TraceFormat.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.trace;
+
+import com.squareup.seismic.SampleSink;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes accelerometer samples to a trace file. Samples are buffered and
+ * written in large blocks. Not thread safe.
+ *
+ * @see TraceReader
+ */
+public final class TraceWriter implements SampleSink, Closeable {
+  private static final int BUFFER_RECORDS = 4096;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer =
+      ByteBuffer.allocate(BUFFER_RECORDS * TraceFormat.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+  /** A write that failed in {@link #onSample}, to be thrown by the next flush. */
+  private IOException failure;
+
+  /**
+   * Creates {@code file}, replacing any existing file, and writes the trace
+   * header to it.
+   *
+   * @param sensorName name of the sensor that produced the samples
+   * @param sampleRateHz nominal rate of the samples
+   */
+  public TraceWriter(File file, String sensorName, float sampleRateHz) throws IOException {
+    channel = new FileOutputStream(file).getChannel();
+    try {
+      writeFully(TraceFormat.encodeHeader(sensorName, sampleRateHz));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    } catch (RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Appends a sample. Failures to write are deferred to the next
+   * {@link #flush} or {@link #close}, since sinks can't throw.
+   */
+  @Override public void onSample(long timestampNanos, float x, float y, float z) {
+    if (!buffer.hasRemaining()) {
+      try {
+        flush();
+      } catch (IOException e) {
+        failure = e;
+        buffer.clear();
+      }
+    }
+    TraceFormat.putRecord(buffer, timestampNanos, x, y, z);
+  }
+
+  /**
+   * Appends a marker at {@code timestampNanos}, such as a shake that was
+   * heard. Readers skip markers unless asked for them.
+   */
+  public void mark(long timestampNanos) {
+    onSample(TraceFormat.markerTimestamp(timestampNanos), 0f, 0f, 0f);
+  }
+
+  /** Writes buffered samples to the file. */
+  public void flush() throws IOException {
+    if (failure != null) {
+      IOException e = failure;
+      failure = null;
+      throw e;
+    }
+    buffer.flip();
+    writeFully(buffer);
+    buffer.clear();
+  }
+
+  /** Flushes buffered samples and closes the file. */
+  @Override public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void writeFully(ByteBuffer source) throws IOException {
+    while (source.hasRemaining()) {
+      channel.write(source);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.squareup.seismic;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class DecimatorTest {
+  private final Decimator decimator = new Decimator();
+
+  @Test public void slowSamplesAreEntriesOfOne() {
+    for (int i = 0; i < 50; i++) {
+      assertThat(decimator.add(i * 20000000L, true, 400)).isTrue();
+    }
+    assertThat(decimator.currentStride()).isEqualTo(1);
+  }
+
+  @Test public void fastSamplesAreCombined() {
+    // 500Hz is 250 samples per window, so about 32 entries of 7.
+    int entries = 0;
+    for (int i = 0; i < 500; i++) {
+      if (decimator.add(i * 2000000L, i % 2 == 0, 400)) {
+        entries++;
+        assertThat(decimator.count()).isEqualTo(decimator.currentStride());
+      }
+    }
+    assertThat(decimator.currentStride()).isEqualTo(7);
+    assertThat(entries).isGreaterThan(60).isLessThan(80);
+  }
+
+  @Test public void rateIsMeasuredFromATimestampOfZero() {
+    decimator.add(0L, false, 0);
+    decimator.add(2000000L, false, 0);
+    assertThat(decimator.currentStride()).isEqualTo(7);
+  }
+
+  @Test public void entryKeepsItsAcceleratingCount() {
+    assertThat(decimator.add(0L, false, 0)).isTrue();
+    // The rate is now known, so the next entry is 7 samples.
+    assertThat(decimator.add(2000000L, false, 0)).isFalse();
+    for (int i = 2; i < 7; i++) {
+      assertThat(decimator.add(i * 2000000L, true, 700)).isFalse();
+    }
+    assertThat(decimator.add(14000000L, false, 700)).isTrue();
+    assertThat(decimator.count()).isEqualTo(7);
+    assertThat(decimator.acceleratingCount()).isEqualTo(5);
+    assertThat(decimator.magnitudeSquared()).isEqualTo(600f);
+  }
+
+  @Test public void resetForgetsTheRate() {
+    decimator.add(0L, false, 0);
+    decimator.add(2000000L, false, 0);
+    decimator.reset();
+    decimator.add(4000000L, false, 0);
+    assertThat(decimator.currentStride()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,79 @@
+package com.squareup.seismic;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.data.Offset.offset;
+
+public class FlightRecorderTest {
+  @Test public void keepsRecentSamples() {
+    FlightRecorder recorder = new FlightRecorder(100000000L, 8, false);
+    for (int i = 0; i < 20; i++) {
+      recorder.onSample(i * 20000000L, i, -i, 9.81f);
+    }
+    // 100ms at 50Hz, including both ends.
+    assertThat(recorder.size()).isEqualTo(6);
+    assertThat(recorder.timestampNanos(0)).isEqualTo(280000000L);
+    assertThat(recorder.x(5)).isEqualTo(19f);
+    assertThat(recorder.y(5)).isEqualTo(-19f);
+    assertThat(recorder.z(5)).isEqualTo(9.81f);
+  }
+
+  @Test public void capacityLimitsSamples() {
+    FlightRecorder recorder = new FlightRecorder(1000000000L, 4, false);
+    for (int i = 0; i < 10; i++) {
+      recorder.onSample(i * 2000000L, i, 0, 0);
+    }
+    assertThat(recorder.size()).isEqualTo(4);
+    assertThat(recorder.x(0)).isEqualTo(6f);
+    assertThat(recorder.x(3)).isEqualTo(9f);
+  }
+
+  @Test public void quantized() {
+    FlightRecorder recorder = new FlightRecorder(1000000000L, 4, true);
+    recorder.onSample(0, 9.81f, -3.3f, 200f);
+    assertThat((double) recorder.x(0)).isEqualTo(9.81, offset(0.002));
+    assertThat((double) recorder.y(0)).isEqualTo(-3.3, offset(0.002));
+    assertThat(recorder.z(0)).isEqualTo(FlightRecorder.QUANTIZED_RANGE);
+  }
+
+  @Test public void frozenRecorderDropsSamples() {
+    FlightRecorder recorder = new FlightRecorder(1000000000L, 4, false);
+    recorder.onSample(0, 1, 0, 0);
+    recorder.freeze();
+    recorder.freeze();
+    recorder.onSample(1, 2, 0, 0);
+    recorder.thaw();
+    recorder.onSample(2, 3, 0, 0);
+    assertThat(recorder.size()).isEqualTo(1);
+    recorder.thaw();
+    recorder.onSample(3, 4, 0, 0);
+    assertThat(recorder.size()).isEqualTo(2);
+    assertThat(recorder.x(1)).isEqualTo(4f);
+  }
+
+  @Test(expected = IllegalStateException.class) public void thawWithoutFreeze() {
+    new FlightRecorder(1000000000L, 4, false).thaw();
+  }
+
+  @Test public void seismometerHandsRecordingToListener() {
+    final int[] recorded = new int[1];
+    final FlightRecorder recorder = new FlightRecorder(1000000000L, 64, true);
+    Seismometer seismometer = new Seismometer(new Seismometer.EventListener() {
+      @Override public void hearShake(ShakeEvent event) {
+        FlightRecording recording = event.recording();
+        recorded[0] = recording.size();
+        assertThat(recording.timestampNanos(recording.size() - 1)).isEqualTo(event.windowEndNanos());
+        // Frozen while the listener runs.
+        recorder.onSample(event.windowEndNanos() + 1, 0, 0, 0);
+        assertThat(recording.size()).isEqualTo(recorded[0]);
+      }
+    });
+    seismometer.setFlightRecorder(recorder);
+    for (int i = 0; i < 20; i++) {
+      seismometer.onSample(i * 20000000L, 20f, 0, 9.81f);
+    }
+    assertThat(recorded[0]).isEqualTo(14);
+    assertThat(recorder.size()).isEqualTo(20);
+  }
+}
@@ -0,0 +1,53 @@
+package com.squareup.seismic;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class LatencyHistogramTest {
+  @Test public void bucketsCoverEveryValue() {
+    // Each bucket starts right after the previous one ends.
+    for (int i = 1; i < LatencyHistogram.BUCKET_COUNT; i++) {
+      assertThat(LatencyHistogram.bucketLowestValue(i))
+          .isEqualTo(LatencyHistogram.bucketHighestValue(i - 1) + 1);
+      assertThat(LatencyHistogram.index(LatencyHistogram.bucketLowestValue(i))).isEqualTo(i);
+      assertThat(LatencyHistogram.index(LatencyHistogram.bucketHighestValue(i))).isEqualTo(i);
+    }
+  }
+
+  @Test public void bucketsAreNarrow() {
+    for (int i = 32; i < LatencyHistogram.BUCKET_COUNT; i++) {
+      long lowest = LatencyHistogram.bucketLowestValue(i);
+      long width = LatencyHistogram.bucketHighestValue(i) - lowest + 1;
+      assertThat(width * 16).isLessThanOrEqualTo(lowest);
+    }
+  }
+
+  @Test public void percentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 1000000L);
+    }
+    histogram.record(-5);
+    assertThat(histogram.totalCount()).isEqualTo(101);
+    assertThat(histogram.min()).isEqualTo(0);
+    assertThat(histogram.max()).isEqualTo(100000000L);
+
+    long median = histogram.valueAtPercentile(50);
+    assertThat(median).isGreaterThanOrEqualTo(50000000L);
+    assertThat(median).isLessThan(50000000L * 17 / 16);
+    assertThat(histogram.valueAtPercentile(100)).isEqualTo(100000000L);
+  }
+
+  @Test public void copyTo() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(10);
+    histogram.record(Long.MAX_VALUE);
+    LatencyHistogram copy = new LatencyHistogram();
+    histogram.copyTo(copy);
+    assertThat(copy.totalCount()).isEqualTo(2);
+    assertThat(copy.bucketCount(10)).isEqualTo(1);
+    assertThat(copy.bucketCount(LatencyHistogram.BUCKET_COUNT - 1)).isEqualTo(1);
+    assertThat(copy.max()).isEqualTo(LatencyHistogram.bucketHighestValue(LatencyHistogram.BUCKET_COUNT - 1));
+  }
+}
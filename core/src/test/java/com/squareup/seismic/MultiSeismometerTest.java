@@ -0,0 +1,69 @@
+package com.squareup.seismic;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class MultiSeismometerTest {
+  /** Counts shakes. */
+  static final class Counter implements Seismometer.Listener {
+    int shakes;
+
+    @Override public void hearShake() {
+      shakes++;
+    }
+  }
+
+  @Test public void levelsHearShakesIndependently() {
+    Counter hard = new Counter();
+    Counter light = new Counter();
+    MultiSeismometer multi = new MultiSeismometer(
+        new int[] { Seismometer.SENSITIVITY_HARD, Seismometer.SENSITIVITY_LIGHT },
+        new Seismometer.Listener[] { hard, light });
+
+    // |a| = 13.3, between light and hard.
+    for (int i = 0; i < 50; i++) {
+      multi.onSample(i * 20000000L, 9f, 0f, 9.81f);
+    }
+    assertThat(light.shakes).isGreaterThan(0);
+    assertThat(hard.shakes).isEqualTo(0);
+  }
+
+  /** Every level hears exactly what a dedicated Seismometer would. */
+  @Test public void matchesSeismometers() {
+    int[] thresholds = {
+        Seismometer.SENSITIVITY_LIGHT, Seismometer.SENSITIVITY_MEDIUM, Seismometer.SENSITIVITY_HARD
+    };
+    Counter[] multiCounters = new Counter[thresholds.length];
+    Counter[] singleCounters = new Counter[thresholds.length];
+    Seismometer[] singles = new Seismometer[thresholds.length];
+    for (int i = 0; i < thresholds.length; i++) {
+      multiCounters[i] = new Counter();
+      singleCounters[i] = new Counter();
+      singles[i] = new Seismometer(singleCounters[i]);
+      singles[i].setSensitivity(thresholds[i]);
+    }
+    MultiSeismometer multi = new MultiSeismometer(thresholds, multiCounters);
+
+    // Ten minutes at 200Hz of bursts of random shaking.
+    Random random = new Random(1);
+    float amplitude = 0f;
+    for (int i = 0; i < 120000; i++) {
+      if (i % 100 == 0) {
+        amplitude = random.nextFloat() * 14f;
+      }
+      float x = (random.nextBoolean() ? 1f : -1f) * amplitude + random.nextFloat() - 0.5f;
+      long timestamp = i * 5000000L;
+      multi.onSample(timestamp, x, 0f, 9.81f);
+      for (Seismometer single : singles) {
+        single.onSample(timestamp, x, 0f, 9.81f);
+      }
+    }
+
+    for (int i = 0; i < thresholds.length; i++) {
+      assertThat(singleCounters[i].shakes).isGreaterThan(0);
+      assertThat(multiCounters[i].shakes).isEqualTo(singleCounters[i].shakes);
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package com.squareup.seismic;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.data.Offset.offset;
+
+public class SampleQueueTest {
+  @Test public void testInitialShaking() {
+    SampleQueue q = new SampleQueue();
+    assertThat(q.isShaking()).isFalse();
+  }
+
+  /** Tests LG Ally sample rate. */
+  @Test public void testShakingSampleCount3() {
+    SampleQueue q = new SampleQueue();
+
+    // These times approximate the data rate of the slowest device we've
+    // found, the LG Ally.
+    // on the LG Ally. The queue holds 500000000 ns (0.5ms) of samples or
+    // 4 samples, whichever is greater.
+    // 500000000
+    q.add(1000000000L, false);
+    q.add(1300000000L, false);
+    q.add(1600000000L, false);
+    q.add(1900000000L, false);
+    assertContent(q, false, false, false, false);
+    assertThat(q.isShaking()).isFalse();
+
+    // The oldest two entries will be removed.
+    q.add(2200000000L, true);
+    q.add(2500000000L, true);
+    assertContent(q, false, false, true, true);
+    assertThat(q.isShaking()).isFalse();
+
+    // Another entry should be removed, now 3 out of 4 are true.
+    q.add(2800000000L, true);
+    assertContent(q, false, true, true, true);
+    assertThat(q.isShaking()).isTrue();
+
+    q.add(3100000000L, false);
+    assertContent(q, true, true, true, false);
+    assertThat(q.isShaking()).isTrue();
+
+    q.add(3400000000L, false);
+    assertContent(q, true, true, false, false);
+    assertThat(q.isShaking()).isFalse();
+  }
+
+  private void assertContent(SampleQueue q, boolean... expected) {
+    List<SampleQueue.Sample> samples = q.asList();
+
+    StringBuilder sb = new StringBuilder();
+    for (SampleQueue.Sample s : samples) {
+      sb.append(String.format("[%b,%d] ", s.accelerating, s.timestamp));
+    }
+
+    assertThat(samples).hasSize(expected.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertThat(samples.get(i).accelerating).isEqualTo(expected[i]);
+    }
+  }
+
+  @Test public void testClear() {
+    SampleQueue q = new SampleQueue();
+    q.add(1000000000L, true);
+    q.add(1200000000L, true);
+    q.add(1400000000L, true);
+    assertThat(q.isShaking()).isTrue();
+    q.clear();
+    assertThat(q.isShaking()).isFalse();
+  }
+
+  /** Tests a 500Hz sensor, which grows the queue and wraps it around many times. */
+  @Test public void testFastSampleRate() {
+    SampleQueue q = new SampleQueue();
+
+    long timestamp = 1000000000L;
+    for (int i = 0; i < 1000; i++) {
+      q.add(timestamp, i % 4 != 0);
+      timestamp += 2000000L;
+    }
+    List<SampleQueue.Sample> samples = q.asList();
+    assertThat(samples).hasSize(251);
+    for (int i = 1; i < samples.size(); i++) {
+      assertThat(samples.get(i).timestamp - samples.get(i - 1).timestamp).isEqualTo(2000000L);
+    }
+    assertThat(q.isShaking()).isTrue();
+
+    for (int i = 0; i < 150; i++) {
+      q.add(timestamp, false);
+      timestamp += 2000000L;
+    }
+    assertThat(q.isShaking()).isFalse();
+
+    q.clear();
+    assertThat(q.asList()).isEmpty();
+  }
+
+  /** Tests a batching sensor that delivers a burst of back-dated samples at once. */
+  @Test public void testBatchedBurst() {
+    SampleQueue q = new SampleQueue();
+
+    // 200ms of 50Hz samples, all delivered at the same moment.
+    for (long t = 1000000000L; t < 1200000000L; t += 20000000L) {
+      q.add(t, true);
+    }
+    assertThat(q.isShaking()).isFalse();
+
+    // The next burst completes the shake.
+    for (long t = 1200000000L; t < 1400000000L; t += 20000000L) {
+      q.add(t, true);
+    }
+    assertThat(q.isShaking()).isTrue();
+  }
+
+  @Test public void testTimestampGoesBackwards() {
+    SampleQueue q = new SampleQueue();
+    q.add(5000000000L, true);
+    q.add(5200000000L, true);
+    q.add(5400000000L, true);
+    assertThat(q.isShaking()).isTrue();
+
+    // The sensor restarted. The old samples no longer apply.
+    q.add(1000000000L, true);
+    assertContent(q, true);
+    assertThat(q.isShaking()).isFalse();
+  }
+
+  @Test public void testWindowAndRatio() {
+    SampleQueue q = new SampleQueue();
+    q.setWindow(1000000000L, 4);
+    q.setAcceleratingRatio(0.5f);
+
+    // 0.4s is no longer long enough.
+    q.add(1000000000L, true);
+    q.add(1200000000L, false);
+    q.add(1400000000L, false);
+    assertThat(q.isShaking()).isFalse();
+
+    // 2 out of 4 spanning 0.6s is.
+    q.add(1600000000L, true);
+    assertThat(q.isShaking()).isTrue();
+
+    // The window keeps a full second of samples.
+    q.add(2100000000L, false);
+    assertContent(q, false, false, true, false);
+    assertThat(q.isShaking()).isFalse();
+  }
+
+  @Test public void testPeakAndMean() {
+    SampleQueue q = new SampleQueue();
+    ShakeEvent event = new ShakeEvent();
+    q.add(1000000000L, true, 400f);
+    q.add(1200000000L, false, 100f);
+    q.add(1400000000L, true, 300f);
+    q.add(1600000000L, true, 200f);
+    q.fill(event);
+    assertThat(event.windowStartNanos()).isEqualTo(1000000000L);
+    assertThat(event.windowEndNanos()).isEqualTo(1600000000L);
+    assertThat(event.accelerationStartNanos()).isEqualTo(1000000000L);
+    assertThat(event.sampleCount()).isEqualTo(4);
+    assertThat(event.acceleratingCount()).isEqualTo(3);
+    assertThat(event.peakMagnitudeSquared()).isEqualTo(400f);
+    assertThat(event.meanMagnitudeSquared()).isEqualTo(250f);
+
+    // The peak leaves the window with its sample.
+    q.add(1800000000L, false, 0f);
+    q.fill(event);
+    assertThat(event.sampleCount()).isEqualTo(4);
+    assertThat(event.peakMagnitudeSquared()).isEqualTo(300f);
+    assertThat(event.meanMagnitudeSquared()).isEqualTo(150f);
+    assertThat(event.accelerationStartNanos()).isEqualTo(1400000000L);
+  }
+
+  @Test public void testPeakSurvivesGrowth() {
+    SampleQueue q = new SampleQueue();
+    ShakeEvent event = new ShakeEvent();
+    // Wrap the ring a few times, then grow it while the peak is mid-window.
+    long timestamp = 0;
+    for (int i = 0; i < 1000; i++) {
+      timestamp += 10000000L;
+      q.add(timestamp, false, i % 50);
+    }
+    for (int i = 0; i < 200; i++) {
+      timestamp += 1000000L;
+      q.add(timestamp, true, i == 20 ? 500f : 1f);
+    }
+    q.fill(event);
+    assertThat(event.peakMagnitudeSquared()).isEqualTo(500f);
+
+    q.clear();
+    q.fill(event);
+    assertThat(event.sampleCount()).isEqualTo(0);
+    assertThat(event.peakMagnitudeSquared()).isEqualTo(0f);
+  }
+
+  @Test public void testStatistics() {
+    SampleQueue q = new SampleQueue();
+    ShakeEvent event = new ShakeEvent();
+    // Magnitudes 3, 4, 5, 6.
+    q.add(1000000000L, false, 9f);
+    q.add(1200000000L, false, 16f);
+    q.add(1400000000L, false, 25f);
+    q.add(1600000000L, false, 36f);
+    q.fill(event);
+    assertThat(event.meanMagnitude()).isEqualTo(4.5f);
+    assertThat(event.magnitudeVariance()).isEqualTo(1.25f);
+    assertThat(event.minMagnitude()).isEqualTo(3f);
+    assertThat(event.maxMagnitude()).isEqualTo(6f);
+    assertThat(event.rmsMagnitude()).isEqualTo((float) Math.sqrt(21.5));
+
+    // Purging 3 reverses its contribution: 4, 5, 6, 2.
+    q.add(1800000000L, false, 4f);
+    q.fill(event);
+    assertThat(event.meanMagnitude()).isEqualTo(4.25f);
+    assertThat(event.magnitudeVariance()).isEqualTo(2.1875f);
+    assertThat(event.minMagnitude()).isEqualTo(2f);
+  }
+
+  @Test public void testStatisticsStartWhenAskedFor() {
+    SampleQueue q = new SampleQueue();
+    ShakeEvent event = new ShakeEvent();
+    q.add(1000000000L, false, 9f);
+    q.add(1200000000L, false, 16f);
+    q.add(1400000000L, false, 25f);
+    q.add(1600000000L, true, 36f);
+    q.fillWindow(event);
+    assertThat(event.sampleCount()).isEqualTo(4);
+    assertThat(event.acceleratingCount()).isEqualTo(1);
+    assertThat(event.windowEndNanos()).isEqualTo(1600000000L);
+    assertThat(event.maxMagnitude()).isEqualTo(0f);
+
+    // The samples already in the window are counted.
+    q.fill(event);
+    assertThat(event.meanMagnitude()).isEqualTo(4.5f);
+    assertThat(event.minMagnitude()).isEqualTo(3f);
+    assertThat(event.maxMagnitude()).isEqualTo(6f);
+
+    q.add(1800000000L, false, 4f);
+    q.fill(event);
+    assertThat(event.meanMagnitude()).isEqualTo(4.25f);
+    assertThat(event.minMagnitude()).isEqualTo(2f);
+  }
+
+  @Test public void testStatisticsStayStable() {
+    SampleQueue q = new SampleQueue();
+    ShakeEvent event = new ShakeEvent();
+    // Slide a long way with a large mean and a tiny spread.
+    long timestamp = 0;
+    for (int i = 0; i < 100000; i++) {
+      timestamp += 2000000L;
+      float magnitude = 1000f + (i % 2) * 0.01f;
+      q.add(timestamp, false, magnitude * magnitude);
+    }
+    q.fill(event);
+    assertThat((double) event.meanMagnitude()).isEqualTo(1000.005, offset(0.001));
+    assertThat((double) event.magnitudeVariance()).isEqualTo(0.000025, offset(0.00001));
+  }
+
+  @Test public void testTimeWeighted() {
+    SampleQueue q = new SampleQueue();
+    SampleQueue timeWeighted = new SampleQueue();
+    timeWeighted.setTimeWeighted(true);
+
+    // A still device reported every 50ms, then a batched burst of 20
+    // accelerating samples 1ms apart.
+    long timestamp = 1000000000L;
+    for (int i = 0; i < 6; i++) {
+      timestamp += 50000000L;
+      q.add(timestamp, false);
+      timeWeighted.add(timestamp, false);
+    }
+    for (int i = 0; i < 20; i++) {
+      timestamp += 1000000L;
+      q.add(timestamp, true);
+      timeWeighted.add(timestamp, true);
+    }
+
+    // 20 of 26 samples are accelerating, but only 20ms of 270ms is.
+    assertThat(q.isShaking()).isTrue();
+    assertThat(timeWeighted.isShaking()).isFalse();
+  }
+
+  @Test public void testTimeWeightedCapsGaps() {
+    SampleQueue q = new SampleQueue();
+    q.setTimeWeighted(true);
+
+    // One slow accelerating sample after a long gap can't outweigh the rest.
+    long timestamp = 1000000000L;
+    for (int i = 0; i < 10; i++) {
+      timestamp += 20000000L;
+      q.add(timestamp, false);
+    }
+    q.add(timestamp + 400000000L, true);
+    assertThat(q.isShaking()).isFalse();
+
+    // Steady accelerating samples are a shake.
+    q.clear();
+    for (int i = 0; i < 20; i++) {
+      timestamp += 20000000L;
+      q.add(timestamp, true);
+    }
+    assertThat(q.isShaking()).isTrue();
+  }
+}
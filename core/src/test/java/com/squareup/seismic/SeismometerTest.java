@@ -0,0 +1,216 @@
+package com.squareup.seismic;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class SeismometerTest {
+  private int shakes;
+
+  private final Seismometer seismometer = new Seismometer(new Seismometer.Listener() {
+    @Override public void hearShake() {
+      shakes++;
+    }
+  });
+
+  @Test public void stillDeviceDoesNotShake() {
+    for (int i = 0; i < 100; i++) {
+      seismometer.onSample(i * 20000000L, 0, 0, 9.81f);
+    }
+    assertThat(shakes).isEqualTo(0);
+  }
+
+  @Test public void hearsShakeFromSource() {
+    // One second at 50Hz, accelerating hard along x.
+    final int count = 50;
+    seismometer.process(new SampleSource() {
+      private int index = -1;
+
+      @Override public boolean next() {
+        return ++index < count;
+      }
+
+      @Override public long timestamp() {
+        return index * 20000000L;
+      }
+
+      @Override public float x() {
+        return 20f;
+      }
+
+      @Override public float y() {
+        return 0f;
+      }
+
+      @Override public float z() {
+        return 9.81f;
+      }
+    });
+
+    // The queue clears after each shake, so one is heard every quarter second.
+    assertThat(shakes).isEqualTo(3);
+  }
+
+  @Test public void sensitivity() {
+    seismometer.setSensitivity(Seismometer.SENSITIVITY_HARD);
+    for (int i = 0; i < 50; i++) {
+      seismometer.onSample(i * 20000000L, 10f, 0, 9.81f);
+    }
+    assertThat(shakes).isEqualTo(0);
+
+    seismometer.setSensitivity(Seismometer.SENSITIVITY_LIGHT);
+    for (int i = 50; i < 100; i++) {
+      seismometer.onSample(i * 20000000L, 10f, 0, 9.81f);
+    }
+    assertThat(shakes).isGreaterThan(0);
+  }
+
+  @Test public void isAccelerating() {
+    assertThat(seismometer.isAccelerating()).isFalse();
+    seismometer.onSample(0L, 20f, 0, 9.81f);
+    assertThat(seismometer.isAccelerating()).isTrue();
+    seismometer.onSample(20000000L, 0, 0, 9.81f);
+    assertThat(seismometer.isAccelerating()).isFalse();
+  }
+
+  @Test public void gravityRemoved() {
+    seismometer.setGravityMode(Seismometer.GRAVITY_REMOVED);
+
+    // A still device reads zero.
+    seismometer.onSample(0L, 0f, 0f, 0f);
+    assertThat(seismometer.isAccelerating()).isFalse();
+
+    // Shaking along gravity now needs the same force as shaking across it.
+    seismometer.onSample(20000000L, 0f, 0f, 9f);
+    assertThat(seismometer.isAccelerating()).isTrue();
+    seismometer.onSample(40000000L, 9f, 0f, 0f);
+    assertThat(seismometer.isAccelerating()).isTrue();
+    seismometer.onSample(60000000L, 8f, 0f, 0f);
+    assertThat(seismometer.isAccelerating()).isFalse();
+  }
+
+  @Test public void gravityRemovedKeepsAThresholdAtLowSensitivities() {
+    seismometer.setGravityMode(Seismometer.GRAVITY_REMOVED);
+    seismometer.setSequentialTest(true);
+    seismometer.setSensitivity(9);
+
+    // Sensor noise at rest is not accelerating, even below gravity.
+    for (int i = 0; i < 100; i++) {
+      seismometer.onSample(i * 20000000L, 0.1f, 0f, 0f);
+      assertThat(seismometer.isAccelerating()).isFalse();
+    }
+    for (int i = 100; i < 150; i++) {
+      seismometer.onSample(i * 20000000L, 5f, 0f, 0f);
+    }
+    assertThat(shakes).isGreaterThan(0);
+  }
+
+  @Test public void gravityFiltered() {
+    seismometer.setGravityMode(Seismometer.GRAVITY_FILTERED);
+    seismometer.setSensitivity(Seismometer.SENSITIVITY_LIGHT);
+
+    // Lying flat, then slowly tipped onto its side over two seconds.
+    for (int i = 0; i <= 100; i++) {
+      double angle = Math.PI / 2 * i / 100;
+      seismometer.onSample(i * 20000000L, (float) (9.81 * Math.sin(angle)), 0f,
+          (float) (9.81 * Math.cos(angle)));
+    }
+    assertThat(shakes).isEqualTo(0);
+
+    // Shaken along gravity.
+    for (int i = 101; i < 200; i++) {
+      float shake = i % 4 < 2 ? 12f : -12f;
+      seismometer.onSample(i * 20000000L, 9.81f + shake, 0f, 0f);
+    }
+    assertThat(shakes).isGreaterThan(0);
+  }
+
+  @Test public void eventDescribesShake() {
+    final ShakeEvent heard = new ShakeEvent();
+    Seismometer eventSeismometer = new Seismometer(new Seismometer.EventListener() {
+      @Override public void hearShake(ShakeEvent event) {
+        shakes++;
+        heard.copyFrom(event);
+      }
+    });
+    for (int i = 0; i < 20; i++) {
+      eventSeismometer.onSample(i * 20000000L, i == 5 ? 30f : 20f, 0, 0);
+    }
+    assertThat(shakes).isEqualTo(1);
+    assertThat(heard.windowStartNanos()).isEqualTo(0);
+    assertThat(heard.windowEndNanos()).isEqualTo(260000000L);
+    assertThat(heard.sampleCount()).isEqualTo(14);
+    assertThat(heard.acceleratingCount()).isEqualTo(14);
+    assertThat(heard.peakMagnitudeSquared()).isEqualTo(900f);
+  }
+
+  @Test public void eventMarksWhenAccelerationStarted() {
+    final ShakeEvent heard = new ShakeEvent();
+    Seismometer eventSeismometer = new Seismometer(new Seismometer.EventListener() {
+      @Override public void hearShake(ShakeEvent event) {
+        shakes++;
+        heard.copyFrom(event);
+      }
+    });
+    // Still for 0.2s, then shaken from 0.2s on.
+    for (int i = 0; i < 40 && shakes == 0; i++) {
+      eventSeismometer.onSample(i * 20000000L, i < 10 ? 0 : 20f, 0, 9.81f);
+    }
+    assertThat(shakes).isEqualTo(1);
+    assertThat(heard.windowStartNanos()).isLessThan(200000000L);
+    assertThat(heard.accelerationStartNanos()).isEqualTo(200000000L);
+  }
+
+  @Test public void pollPublishesLatestSample() {
+    ShakeState state = new ShakeState();
+    seismometer.poll(state);
+    assertThat(state.timestampNanos()).isEqualTo(0);
+
+    seismometer.onSample(0, 0, 0, 9.81f);
+    seismometer.onSample(20000000L, 0, 0, 9.81f);
+    seismometer.onSample(40000000L, 30f, 40f, 0);
+    seismometer.onSample(60000000L, 30f, 40f, 0);
+    seismometer.poll(state);
+    assertThat(state.timestampNanos()).isEqualTo(60000000L);
+    assertThat(state.acceleratingRatio()).isEqualTo(0.5f);
+    assertThat(state.windowSpanNanos()).isEqualTo(60000000L);
+    assertThat(state.magnitude()).isEqualTo(50f);
+
+    seismometer.reset();
+    seismometer.poll(state);
+    assertThat(state.acceleratingRatio()).isEqualTo(0f);
+    assertThat(state.windowSpanNanos()).isEqualTo(0);
+  }
+
+  @Test public void autoTuneBoundsQueueAtFastRates() {
+    seismometer.setAutoTune(true);
+    // One second at 500Hz, still and then shaking.
+    int maxQueueSize = 0;
+    for (int i = 0; i < 500; i++) {
+      float x = i < 250 ? 0 : 20f;
+      seismometer.onSample(i * 2000000L, x, 0, 9.81f);
+      maxQueueSize = Math.max(maxQueueSize, seismometer.queueSize());
+    }
+    assertThat(shakes).isEqualTo(1);
+    assertThat(maxQueueSize).isLessThanOrEqualTo(Decimator.TARGET_ENTRIES * 2);
+  }
+
+  @Test public void autoTuneKeepsTheAcceleratingRatio() {
+    seismometer.setAutoTune(true);
+    // Two seconds at 500Hz with 7 samples in 10 accelerating. Every combined
+    // entry is mostly accelerating, but the samples fall short of 3/4.
+    for (int i = 0; i < 1000; i++) {
+      float x = i % 10 < 7 ? 20f : 0;
+      seismometer.onSample(i * 2000000L, x, 0, 9.81f);
+    }
+    assertThat(shakes).isEqualTo(0);
+  }
+
+  @Test public void autoTuneLeavesSlowRatesAlone() {
+    seismometer.setAutoTune(true);
+    for (int i = 0; i < 50; i++) {
+      seismometer.onSample(i * 20000000L, 20f, 0, 9.81f);
+    }
+    assertThat(shakes).isEqualTo(3);
+  }
+}
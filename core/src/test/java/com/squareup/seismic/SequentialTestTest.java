@@ -0,0 +1,55 @@
+package com.squareup.seismic;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class SequentialTestTest {
+  private final SequentialTest test = new SequentialTest();
+
+  @Test public void stillSamplesNeverDecide() {
+    for (int i = 0; i < 500; i++) {
+      assertThat(test.add(i * 20000000L, false, 0.5)).isFalse();
+    }
+  }
+
+  @Test public void vigorousShakingDecidesInAQuarterWindow() {
+    int decidedAt = -1;
+    for (int i = 0; i < 25 && decidedAt < 0; i++) {
+      if (test.add(i * 20000000L, true, 4)) {
+        decidedAt = i;
+      }
+    }
+    // The evidence must span 125ms, which is the seventh sample at 50Hz.
+    assertThat(decidedAt).isEqualTo(7);
+  }
+
+  @Test public void samplesJustOverTheThresholdAreLeftToTheWindow() {
+    for (int i = 0; i < 500; i++) {
+      assertThat(test.add(i * 20000000L, true, 1.01)).isFalse();
+    }
+  }
+
+  @Test public void unboundedRatiosCountAsTheLargest() {
+    // A threshold of zero makes ratios infinite, or NaN for a still sample.
+    assertThat(test.add(0L, true, Double.POSITIVE_INFINITY)).isFalse();
+    assertThat(test.add(20000000L, true, Double.NaN)).isFalse();
+    boolean decided = false;
+    for (int i = 2; i < 25 && !decided; i++) {
+      decided = test.add(i * 20000000L, true, 4);
+    }
+    assertThat(decided).isTrue();
+  }
+
+  @Test public void restartedSensorStartsOver() {
+    for (int i = 0; i < 6; i++) {
+      assertThat(test.add(1000000000L + i * 20000000L, true, 4)).isFalse();
+    }
+    // Older timestamps mean the sensor restarted, so the span starts again.
+    for (int i = 0; i < 6; i++) {
+      assertThat(test.add(i * 20000000L, true, 4)).isFalse();
+    }
+    assertThat(test.add(6 * 20000000L, true, 4)).isFalse();
+    assertThat(test.add(7 * 20000000L, true, 4)).isTrue();
+  }
+}
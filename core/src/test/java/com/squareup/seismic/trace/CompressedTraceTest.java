@@ -0,0 +1,167 @@
+package com.squareup.seismic.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class CompressedTraceTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test public void roundTrip() throws IOException {
+    File file = temporaryFolder.newFile();
+    long[] timestamps = new long[10000];
+    float[] values = new float[timestamps.length * 3];
+    Random random = new Random(0);
+    long timestamp = 1000000000L;
+    for (int i = 0; i < timestamps.length; i++) {
+      // Jitter of up to 0.1ms, with the occasional gap.
+      timestamp += 2500000L + random.nextInt(200000) - 100000 + (i % 1000 == 999 ? 1000000000L : 0);
+      timestamps[i] = timestamp;
+      for (int axis = 0; axis < 3; axis++) {
+        int choice = random.nextInt(4);
+        values[i * 3 + axis] = choice == 0 ? 9.81f
+            : choice == 1 ? (float) random.nextGaussian() * 20f
+            : choice == 2 ? Float.NaN
+            : -random.nextInt(3);
+      }
+    }
+    CompressedTraceWriter writer = new CompressedTraceWriter(file, "BMI160 accelerometer", 400f);
+    for (int i = 0; i < timestamps.length; i++) {
+      writer.onSample(timestamps[i], values[i * 3], values[i * 3 + 1], values[i * 3 + 2]);
+    }
+    writer.close();
+
+    CompressedTraceReader reader = new CompressedTraceReader(file);
+    assertThat(reader.sensorName()).isEqualTo("BMI160 accelerometer");
+    assertThat(reader.sampleRateHz()).isEqualTo(400f);
+    for (int i = 0; i < timestamps.length; i++) {
+      assertThat(reader.next()).isTrue();
+      assertThat(reader.timestamp()).isEqualTo(timestamps[i]);
+      assertThat(Float.floatToRawIntBits(reader.x())).isEqualTo(Float.floatToRawIntBits(values[i * 3]));
+      assertThat(Float.floatToRawIntBits(reader.y())).isEqualTo(Float.floatToRawIntBits(values[i * 3 + 1]));
+      assertThat(Float.floatToRawIntBits(reader.z())).isEqualTo(Float.floatToRawIntBits(values[i * 3 + 2]));
+    }
+    assertThat(reader.next()).isFalse();
+    assertThat(reader.next()).isFalse();
+    reader.close();
+  }
+
+  @Test public void compressesSteadySamples() throws IOException {
+    File file = temporaryFolder.newFile();
+    CompressedTraceWriter writer = new CompressedTraceWriter(file, "", 400f);
+    Random random = new Random(0);
+    // A device on a table: a steady rate, and each axis a count or so from rest.
+    float resolution = 9.80665f / 4096;
+    for (int i = 0; i < 4000; i++) {
+      writer.onSample(i * 2500000L, (12 + count(random)) * resolution, (-30 + count(random)) * resolution,
+          (4096 + count(random)) * resolution);
+    }
+    writer.close();
+    assertThat(file.length()).isLessThan(4000L * TraceFormat.RECORD_SIZE / 3);
+  }
+
+  /** Usually 0, otherwise plus or minus 1. */
+  private static int count(Random random) {
+    int roll = random.nextInt(6);
+    return roll == 0 ? -1 : roll == 1 ? 1 : 0;
+  }
+
+  @Test public void markers() throws IOException {
+    File file = temporaryFolder.newFile();
+    CompressedTraceWriter writer = new CompressedTraceWriter(file, "", 50f);
+    writer.onSample(20000000L, 1f, 2f, 3f);
+    writer.mark(20000000L);
+    writer.onSample(40000000L, 4f, 5f, 6f);
+    writer.close();
+
+    CompressedTraceReader reader = new CompressedTraceReader(file);
+    assertThat(reader.next()).isTrue();
+    assertThat(reader.next()).isTrue();
+    assertThat(reader.timestamp()).isEqualTo(40000000L);
+    assertThat(reader.x()).isEqualTo(4f);
+    assertThat(reader.next()).isFalse();
+    reader.close();
+
+    reader = new CompressedTraceReader(file);
+    assertThat(reader.nextRecord()).isTrue();
+    assertThat(reader.isMarker()).isFalse();
+    assertThat(reader.nextRecord()).isTrue();
+    assertThat(reader.isMarker()).isTrue();
+    assertThat(reader.timestamp()).isEqualTo(20000000L);
+    assertThat(reader.nextRecord()).isTrue();
+    assertThat(reader.isMarker()).isFalse();
+    assertThat(reader.nextRecord()).isFalse();
+    reader.close();
+  }
+
+  @Test public void truncatedTrace() throws IOException {
+    File file = temporaryFolder.newFile();
+    CompressedTraceWriter writer = new CompressedTraceWriter(file, "", 50f);
+    for (int i = 0; i < 100; i++) {
+      writer.onSample(i * 20000000L, i, -i, 9.81f);
+    }
+    writer.close();
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    out.setLength(file.length() - 20);
+    out.close();
+
+    CompressedTraceReader reader = new CompressedTraceReader(file);
+    int count = 0;
+    while (reader.next()) {
+      assertThat(reader.x()).isEqualTo((float) count);
+      count++;
+    }
+    assertThat(count).isGreaterThan(50).isLessThan(100);
+    reader.close();
+  }
+
+  @Test public void readersRejectEachOthersTraces() throws IOException {
+    File raw = temporaryFolder.newFile();
+    new TraceWriter(raw, "", 50f).close();
+    File compressed = temporaryFolder.newFile();
+    new CompressedTraceWriter(compressed, "", 50f).close();
+
+    try {
+      new CompressedTraceReader(raw);
+      fail();
+    } catch (IOException expected) {
+    }
+    try {
+      new TraceReader(compressed);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test public void recorderCompresses() throws IOException {
+    File directory = temporaryFolder.newFolder();
+    TraceRecorder recorder = new TraceRecorder(directory, "session", "", 50f, 1000, true);
+    for (int i = 0; i < 1000; i++) {
+      recorder.onSample(i * 20000000L, i, 0f, 9.81f);
+    }
+    // Less than a buffer, so nothing can be dropped.
+    recorder.close();
+
+    String[] names = directory.list();
+    assertThat(names.length).isGreaterThan(1);
+    int samples = 0;
+    for (int n = 0; n < names.length; n++) {
+      File file = new File(directory, "session-" + n + ".ctrace");
+      assertThat(file.length()).isLessThanOrEqualTo(1000L);
+      CompressedTraceReader reader = new CompressedTraceReader(file);
+      while (reader.next()) {
+        assertThat(reader.x()).isEqualTo((float) samples);
+        samples++;
+      }
+      reader.close();
+    }
+    assertThat(samples).isEqualTo(1000);
+  }
+}
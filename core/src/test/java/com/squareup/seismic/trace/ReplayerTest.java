@@ -0,0 +1,113 @@
+package com.squareup.seismic.trace;
+
+import com.squareup.seismic.Seismometer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ReplayerTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final Replayer replayer = new Replayer();
+  private final Seismometer seismometer = new Seismometer(replayer);
+
+  /** Writes one second at 50Hz, shaking from 0.4s to 0.8s. */
+  private File writeTrace() throws IOException {
+    File file = temporaryFolder.newFile();
+    TraceWriter writer = new TraceWriter(file, "accelerometer", 50f);
+    for (int i = 0; i < 50; i++) {
+      float x = i >= 20 && i < 40 ? 20f : 0f;
+      writer.onSample(i * 20000000L, x, 0f, 9.81f);
+    }
+    writer.close();
+    return file;
+  }
+
+  @Test public void replay() throws IOException {
+    TraceReader reader = new TraceReader(writeTrace());
+    replayer.replay(reader, seismometer);
+    reader.close();
+
+    assertThat(replayer.shakeCount()).isEqualTo(1);
+    assertThat(replayer.shakeTimestamp(0)).isEqualTo(760000000L);
+  }
+
+  @Test public void replayPaced() throws Exception {
+    TraceReader reader = new TraceReader(writeTrace());
+    long start = System.nanoTime();
+    replayer.replayPaced(reader, seismometer, 10);
+    long elapsed = System.nanoTime() - start;
+    reader.close();
+
+    // The trace spans 980ms, so at 10x it takes at least 98ms.
+    assertThat(elapsed).isGreaterThanOrEqualTo(98000000L);
+    assertThat(replayer.shakeCount()).isEqualTo(1);
+    assertThat(replayer.shakeTimestamp(0)).isEqualTo(760000000L);
+  }
+
+  @Test public void clear() throws IOException {
+    TraceReader reader = new TraceReader(writeTrace());
+    replayer.replay(reader, seismometer);
+    reader.close();
+    replayer.clear();
+
+    assertThat(replayer.shakeCount()).isEqualTo(0);
+  }
+
+  @Test public void sequentialTestHearsShakeSooner() throws IOException {
+    seismometer.setSequentialTest(true);
+    TraceReader reader = new TraceReader(writeTrace());
+    replayer.replay(reader, seismometer);
+    reader.close();
+
+    assertThat(replayer.shakeTimestamp(0)).isEqualTo(520000000L);
+  }
+
+  @Test public void sequentialTestKeepsFalsePositivesComparable() throws IOException {
+    // Ten minutes of handling at 50Hz: runs of movement just over the
+    // threshold, and the occasional jolt from setting the device down.
+    File file = temporaryFolder.newFile();
+    TraceWriter writer = new TraceWriter(file, "accelerometer", 50f);
+    Random random = new Random(1);
+    boolean moving = false;
+    int jolt = 0;
+    for (int i = 0; i < 50 * 60 * 10; i++) {
+      if (random.nextInt(5) == 0) {
+        moving = random.nextInt(10) < 3;
+      }
+      if (jolt == 0 && random.nextInt(100) == 0) {
+        jolt = 3;
+      }
+      float x;
+      if (jolt > 0) {
+        x = 35f;
+        jolt--;
+      } else {
+        x = moving ? 13.5f + 3f * random.nextFloat() : 5f * random.nextFloat();
+      }
+      writer.onSample(i * 20000000L, x, 0f, 0f);
+    }
+    writer.close();
+
+    TraceReader reader = new TraceReader(file);
+    replayer.replay(reader, seismometer);
+    reader.close();
+    int windowShakes = replayer.shakeCount();
+
+    replayer.clear();
+    seismometer.reset();
+    seismometer.setSequentialTest(true);
+    reader = new TraceReader(file);
+    replayer.replay(reader, seismometer);
+    reader.close();
+    int sequentialShakes = replayer.shakeCount();
+
+    assertThat(windowShakes).isGreaterThan(0);
+    assertThat(sequentialShakes).isLessThanOrEqualTo(windowShakes * 5 / 4);
+  }
+}
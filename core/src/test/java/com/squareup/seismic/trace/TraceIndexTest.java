@@ -0,0 +1,108 @@
+package com.squareup.seismic.trace;
+
+import com.squareup.seismic.SampleSink;
+import com.squareup.seismic.Seismometer;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TraceIndexTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  /**
+   * Writes 10 blocks of samples at rest, with a shake between 7 and 20 m/s^2
+   * in block 3 and a marker in block 7.
+   */
+  private File writeTrace() throws IOException {
+    File file = temporaryFolder.newFile("test.trace");
+    TraceWriter writer = new TraceWriter(file, "accelerometer", 400f);
+    for (int i = 0; i < 10 * TraceIndex.BLOCK_RECORDS - 1; i++) {
+      long timestamp = i * 2500000L;
+      if (i == 7 * TraceIndex.BLOCK_RECORDS + 10) {
+        writer.mark(timestamp);
+      } else if (i >= 3 * TraceIndex.BLOCK_RECORDS + 100 && i < 3 * TraceIndex.BLOCK_RECORDS + 300) {
+        writer.onSample(timestamp, i % 2 == 0 ? 20f : 7f, 0f, 9.81f);
+      } else {
+        writer.onSample(timestamp, 0f, 0f, 9.81f);
+      }
+    }
+    writer.close();
+    return file;
+  }
+
+  @Test public void summarizesBlocks() throws IOException {
+    TraceReader reader = new TraceReader(writeTrace());
+    TraceIndex index = TraceIndex.build(reader);
+    reader.close();
+
+    assertThat(index.blockCount()).isEqualTo(10);
+    assertThat(index.sampleCount(0)).isEqualTo(TraceIndex.BLOCK_RECORDS);
+    assertThat(index.sampleCount(7)).isEqualTo(TraceIndex.BLOCK_RECORDS - 1);
+    assertThat(index.sampleCount(9)).isEqualTo(TraceIndex.BLOCK_RECORDS - 1);
+    assertThat(index.minTimestamp(1)).isEqualTo(TraceIndex.BLOCK_RECORDS * 2500000L);
+    assertThat(index.maxTimestamp(1)).isEqualTo((2 * TraceIndex.BLOCK_RECORDS - 1) * 2500000L);
+    assertThat(index.maxMagnitudeSquared(0)).isEqualTo(9.81f * 9.81f);
+    assertThat(index.minMagnitudeSquared(3)).isEqualTo(9.81f * 9.81f);
+    assertThat(index.maxMagnitudeSquared(3)).isEqualTo(20f * 20f + 9.81f * 9.81f);
+    assertThat(index.acceleratingCount(3, Seismometer.SENSITIVITY_LIGHT)).isEqualTo(200);
+    assertThat(index.acceleratingCount(3, Seismometer.SENSITIVITY_MEDIUM)).isEqualTo(100);
+    assertThat(index.acceleratingCount(3, Seismometer.SENSITIVITY_HARD)).isEqualTo(100);
+    assertThat(index.acceleratingCount(4, Seismometer.SENSITIVITY_LIGHT)).isEqualTo(0);
+  }
+
+  @Test public void scanSkipsBlocks() throws IOException {
+    File file = writeTrace();
+    TraceIndex index = TraceIndex.load(file);
+    assertThat(index.nextBlock(0, 0, Long.MAX_VALUE, Seismometer.SENSITIVITY_HARD)).isEqualTo(3);
+    assertThat(index.nextBlock(4, 0, Long.MAX_VALUE, Seismometer.SENSITIVITY_HARD)).isEqualTo(-1);
+    assertThat(index.nextBlock(0, 0, 1000000000L, Seismometer.SENSITIVITY_HARD)).isEqualTo(-1);
+    assertThat(index.nextBlock(5, 0, Long.MAX_VALUE, 0f)).isEqualTo(5);
+
+    final long[] seen = new long[2];
+    TraceReader reader = new TraceReader(file);
+    long count = index.scan(reader, 0, Long.MAX_VALUE, Seismometer.SENSITIVITY_HARD, new SampleSink() {
+      @Override public void onSample(long timestampNanos, float x, float y, float z) {
+        assertThat(x).isEqualTo(20f);
+        if (seen[0] == 0) {
+          seen[0] = timestampNanos;
+        }
+        seen[1] = timestampNanos;
+      }
+    });
+    reader.close();
+    assertThat(count).isEqualTo(100L);
+    assertThat(seen[0]).isEqualTo((3 * TraceIndex.BLOCK_RECORDS + 100) * 2500000L);
+    assertThat(seen[1]).isEqualTo((3 * TraceIndex.BLOCK_RECORDS + 298) * 2500000L);
+  }
+
+  @Test public void loadWritesAndReusesIndex() throws IOException {
+    File file = writeTrace();
+    File indexFile = TraceIndex.indexFile(file);
+    assertThat(indexFile.getName()).isEqualTo("test.trace.index");
+    assertThat(indexFile.exists()).isFalse();
+
+    TraceIndex built = TraceIndex.load(file);
+    assertThat(indexFile.exists()).isTrue();
+    TraceIndex read = TraceIndex.read(indexFile);
+    assertThat(read.recordCount()).isEqualTo(built.recordCount());
+    for (int block = 0; block < built.blockCount(); block++) {
+      assertThat(read.minTimestamp(block)).isEqualTo(built.minTimestamp(block));
+      assertThat(read.maxMagnitudeSquared(block)).isEqualTo(built.maxMagnitudeSquared(block));
+      assertThat(read.acceleratingCount(block, Seismometer.SENSITIVITY_HARD))
+          .isEqualTo(built.acceleratingCount(block, Seismometer.SENSITIVITY_HARD));
+    }
+
+    // A trace rewritten since it was indexed is indexed again.
+    TraceWriter writer = new TraceWriter(file, "accelerometer", 400f);
+    writer.onSample(0L, 30f, 0f, 0f);
+    writer.close();
+    file.setLastModified(indexFile.lastModified() + 1000);
+    TraceIndex rebuilt = TraceIndex.load(file);
+    assertThat(rebuilt.blockCount()).isEqualTo(1);
+    assertThat(rebuilt.maxMagnitudeSquared(0)).isEqualTo(900f);
+  }
+}
@@ -0,0 +1,89 @@
+package com.squareup.seismic.trace;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TraceRecorderTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test public void recordsSamplesAndMarkers() throws IOException {
+    File directory = temporaryFolder.newFolder();
+    TraceRecorder recorder = new TraceRecorder(directory, "session", "accelerometer", 400f, 1L << 20);
+    // More than two buffers' worth.
+    for (int i = 0; i < 10000; i++) {
+      recorder.onSample(i * 2500000L, i, 0f, 9.81f);
+      if (i % 1000 == 999) {
+        recorder.mark(i * 2500000L);
+      }
+    }
+    recorder.close();
+
+    TraceReader reader = new TraceReader(new File(directory, "session-0.trace"));
+    assertThat(reader.sensorName()).isEqualTo("accelerometer");
+    int samples = 0;
+    int markers = 0;
+    float lastX = -1f;
+    while (reader.nextRecord()) {
+      if (reader.isMarker()) {
+        assertThat(reader.timestamp() / 2500000L % 1000).isEqualTo(999L);
+        markers++;
+      } else {
+        assertThat(reader.x()).isGreaterThan(lastX);
+        lastX = reader.x();
+        samples++;
+      }
+    }
+    reader.close();
+    // A tight loop can outrun the writer, which drops whole buffers.
+    assertThat(samples + markers + recorder.droppedBuffers() * 4096).isEqualTo(10010);
+  }
+
+  @Test public void closeRightAfterAHandOffKeepsTheLastBuffer() throws IOException {
+    // The writer may still be taking the handed-off buffer when close() hands it the last one.
+    for (int attempt = 0; attempt < 200; attempt++) {
+      File directory = temporaryFolder.newFolder();
+      TraceRecorder recorder = new TraceRecorder(directory, "session", "", 400f, 1L << 20);
+      for (int i = 0; i <= 4096; i++) {
+        recorder.onSample(i * 2500000L, i, 0f, 0f);
+      }
+      recorder.close();
+
+      TraceReader reader = new TraceReader(new File(directory, "session-0.trace"));
+      int samples = 0;
+      while (reader.next()) {
+        samples++;
+      }
+      reader.close();
+      assertThat(samples).isEqualTo(4097);
+    }
+  }
+
+  @Test public void rollsFiles() throws IOException {
+    File directory = temporaryFolder.newFolder();
+    TraceRecorder recorder = new TraceRecorder(directory, "session", "", 50f, 1000);
+    for (int i = 0; i < 200; i++) {
+      recorder.onSample(i * 20000000L, i, 0f, 0f);
+    }
+    recorder.close();
+
+    // 14 byte headers leave room for 49 records of 20 bytes.
+    assertThat(directory.list()).hasSize(5);
+    int samples = 0;
+    for (int n = 0; n < 5; n++) {
+      File file = new File(directory, "session-" + n + ".trace");
+      assertThat(file.length()).isLessThanOrEqualTo(1000L);
+      TraceReader reader = new TraceReader(file);
+      while (reader.next()) {
+        assertThat(reader.x()).isEqualTo((float) samples);
+        samples++;
+      }
+      reader.close();
+    }
+    assertThat(samples).isEqualTo(200);
+  }
+}
@@ -0,0 +1,110 @@
+package com.squareup.seismic.trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class TraceTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test public void roundTrip() throws IOException {
+    File file = temporaryFolder.newFile();
+    TraceWriter writer = new TraceWriter(file, "BMI160 accelerometer", 400f);
+    // More than one buffer's worth.
+    for (int i = 0; i < 10000; i++) {
+      writer.onSample(1000000000L + i * 2500000L, i, -i, 9.81f);
+    }
+    writer.close();
+
+    TraceReader reader = new TraceReader(file);
+    assertThat(reader.sensorName()).isEqualTo("BMI160 accelerometer");
+    assertThat(reader.sampleRateHz()).isEqualTo(400f);
+    assertThat(reader.recordCount()).isEqualTo(10000L);
+    for (int i = 0; i < 10000; i++) {
+      assertThat(reader.next()).isTrue();
+      assertThat(reader.timestamp()).isEqualTo(1000000000L + i * 2500000L);
+      assertThat(reader.x()).isEqualTo((float) i);
+      assertThat(reader.y()).isEqualTo((float) -i);
+      assertThat(reader.z()).isEqualTo(9.81f);
+    }
+    assertThat(reader.next()).isFalse();
+    assertThat(reader.next()).isFalse();
+    reader.close();
+  }
+
+  @Test public void markers() throws IOException {
+    File file = temporaryFolder.newFile();
+    TraceWriter writer = new TraceWriter(file, "accelerometer", 50f);
+    writer.onSample(0L, 1f, 2f, 3f);
+    writer.mark(0L);
+    writer.onSample(20000000L, 4f, 5f, 6f);
+    writer.mark(20000000L);
+    writer.close();
+
+    TraceReader reader = new TraceReader(file);
+    assertThat(reader.recordCount()).isEqualTo(4L);
+    assertThat(reader.next()).isTrue();
+    assertThat(reader.x()).isEqualTo(1f);
+    assertThat(reader.next()).isTrue();
+    assertThat(reader.x()).isEqualTo(4f);
+    assertThat(reader.next()).isFalse();
+    reader.close();
+
+    reader = new TraceReader(file);
+    assertThat(reader.nextRecord()).isTrue();
+    assertThat(reader.isMarker()).isFalse();
+    assertThat(reader.nextRecord()).isTrue();
+    assertThat(reader.isMarker()).isTrue();
+    assertThat(reader.timestamp()).isEqualTo(0L);
+    assertThat(reader.nextRecord()).isTrue();
+    assertThat(reader.nextRecord()).isTrue();
+    assertThat(reader.isMarker()).isTrue();
+    assertThat(reader.timestamp()).isEqualTo(20000000L);
+    assertThat(reader.nextRecord()).isFalse();
+    reader.close();
+  }
+
+  @Test public void emptyTrace() throws IOException {
+    File file = temporaryFolder.newFile();
+    new TraceWriter(file, "", 50f).close();
+
+    TraceReader reader = new TraceReader(file);
+    assertThat(reader.sensorName()).isEqualTo("");
+    assertThat(reader.recordCount()).isEqualTo(0L);
+    assertThat(reader.next()).isFalse();
+    reader.close();
+  }
+
+  @Test public void ignoresPartialRecord() throws IOException {
+    File file = temporaryFolder.newFile();
+    TraceWriter writer = new TraceWriter(file, "accelerometer", 50f);
+    writer.onSample(1L, 1f, 2f, 3f);
+    writer.close();
+    FileOutputStream out = new FileOutputStream(file, true);
+    out.write(new byte[] { 1, 2, 3 });
+    out.close();
+
+    TraceReader reader = new TraceReader(file);
+    assertThat(reader.recordCount()).isEqualTo(1L);
+    reader.close();
+  }
+
+  @Test public void rejectsOtherFiles() throws IOException {
+    File file = temporaryFolder.newFile();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write("Not a trace at all".getBytes("UTF-8"));
+    out.close();
+
+    try {
+      new TraceReader(file);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import java.util.Arrays;
+
+/**
+ * Shares one accelerometer registration between every detector in the
+ * process. The hub registers at the fastest rate any subscriber asked for,
+ * fans each event out to all subscribers on the main thread, and unregisters
+ * when the last subscriber leaves.
+ *
+ * <pre>
+ * shakeDetector.start(AccelerometerHub.get(sensorManager), SENSOR_DELAY_GAME);
+ * </pre>
+ */
+public final class AccelerometerHub implements SensorEventListener {
+  /** Sampling periods that SensorManager uses for its SENSOR_DELAY constants. */
+  private static final int PERIOD_GAME_US = 20000;
+  private static final int PERIOD_UI_US = 66667;
+  private static final int PERIOD_NORMAL_US = 200000;
+
+  private static AccelerometerHub instance;
+
+  private final SensorManager sensorManager;
+  private final Sensor accelerometer;
+
+  /** Copied on write so that events can be fanned out without locking. */
+  private volatile SensorEventListener[] subscribers = new SensorEventListener[0];
+  private int[] sensorDelays = new int[0];
+
+  /** Delay of the current registration, or -1 if not registered. */
+  private int registeredDelay = -1;
+
+  AccelerometerHub(SensorManager sensorManager) {
+    this.sensorManager = sensorManager;
+    this.accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+  }
+
+  /** Returns the process-wide hub, creating it with {@code sensorManager} on first use. */
+  public static synchronized AccelerometerHub get(SensorManager sensorManager) {
+    if (instance == null) {
+      instance = new AccelerometerHub(sensorManager);
+    }
+    return instance;
+  }
+
+  /**
+   * Delivers accelerometer events to {@code subscriber} on the main thread at
+   * least as often as {@code sensorDelay} asks for. Subscribing again changes
+   * the subscriber's rate.
+   *
+   * @param sensorDelay one of the SensorManager SENSOR_DELAY constants, or a
+   *     sampling period in microseconds
+   * @return true if the device has an accelerometer.
+   */
+  public synchronized boolean subscribe(SensorEventListener subscriber, int sensorDelay) {
+    if (accelerometer == null) {
+      return false;
+    }
+    int index = indexOf(subscriber);
+    if (index == -1) {
+      index = subscribers.length;
+      SensorEventListener[] newSubscribers = Arrays.copyOf(subscribers, index + 1);
+      newSubscribers[index] = subscriber;
+      sensorDelays = Arrays.copyOf(sensorDelays, index + 1);
+      subscribers = newSubscribers;
+    }
+    sensorDelays[index] = sensorDelay;
+    updateRegistration();
+    return true;
+  }
+
+  /** Stops delivering events to {@code subscriber}. Safe to call when not subscribed. */
+  public synchronized void unsubscribe(SensorEventListener subscriber) {
+    int index = indexOf(subscriber);
+    if (index == -1) {
+      return;
+    }
+    int last = subscribers.length - 1;
+    SensorEventListener[] newSubscribers = Arrays.copyOf(subscribers, last);
+    int[] newDelays = Arrays.copyOf(sensorDelays, last);
+    if (index != last) {
+      newSubscribers[index] = subscribers[last];
+      newDelays[index] = sensorDelays[last];
+    }
+    subscribers = newSubscribers;
+    sensorDelays = newDelays;
+    updateRegistration();
+  }
+
+  @Override public void onSensorChanged(SensorEvent event) {
+    SensorEventListener[] subscribers = this.subscribers;
+    for (SensorEventListener subscriber : subscribers) {
+      subscriber.onSensorChanged(event);
+    }
+  }
+
+  @Override public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    SensorEventListener[] subscribers = this.subscribers;
+    for (SensorEventListener subscriber : subscribers) {
+      subscriber.onAccuracyChanged(sensor, accuracy);
+    }
+  }
+
+  /** Registers at the fastest rate subscribers want, or unregisters if there are none. */
+  private void updateRegistration() {
+    int delay = -1;
+    for (int subscriberDelay : sensorDelays) {
+      if (delay == -1 || periodUs(subscriberDelay) < periodUs(delay)) {
+        delay = subscriberDelay;
+      }
+    }
+    if (delay == registeredDelay) {
+      return;
+    }
+    if (registeredDelay != -1) {
+      sensorManager.unregisterListener(this, accelerometer);
+    }
+    if (delay != -1) {
+      sensorManager.registerListener(this, accelerometer, delay);
+    }
+    registeredDelay = delay;
+  }
+
+  private int indexOf(SensorEventListener subscriber) {
+    for (int i = 0; i < subscribers.length; i++) {
+      if (subscribers[i] == subscriber) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Converts a SENSOR_DELAY constant to the sampling period it stands for. */
+  static int periodUs(int sensorDelay) {
+    switch (sensorDelay) {
+      case SensorManager.SENSOR_DELAY_FASTEST:
+        return 0;
+      case SensorManager.SENSOR_DELAY_GAME:
+        return PERIOD_GAME_US;
+      case SensorManager.SENSOR_DELAY_UI:
+        return PERIOD_UI_US;
+      case SensorManager.SENSOR_DELAY_NORMAL:
+        return PERIOD_NORMAL_US;
+      default:
+        return sensorDelay;
+    }
+  }
+}
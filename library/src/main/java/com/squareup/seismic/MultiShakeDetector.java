@@ -0,0 +1,122 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+/**
+ * Detects phone shaking at several sensitivities with a single accelerometer
+ * registration. Use this instead of one {@link ShakeDetector} per level when
+ * users can choose how hard they have to shake.
+ *
+ * <pre>
+ * MultiShakeDetector detector = new MultiShakeDetector(
+ *     new int[] { SENSITIVITY_LIGHT, SENSITIVITY_HARD },
+ *     new ShakeDetector.Listener[] { lightListener, hardListener });
+ * detector.start(sensorManager);
+ * </pre>
+ *
+ * @see MultiSeismometer
+ */
+public class MultiShakeDetector implements SensorEventListener {
+  private final MultiSeismometer seismometer;
+
+  private SensorManager sensorManager;
+  private Sensor accelerometer;
+  private AccelerometerHub hub;
+
+  /**
+   * @param accelerationThresholds sensitivities such as
+   *     {@link ShakeDetector#SENSITIVITY_LIGHT}, in any order
+   * @param listeners listeners for each of {@code accelerationThresholds},
+   *     called on the main thread
+   */
+  public MultiShakeDetector(int[] accelerationThresholds, ShakeDetector.Listener[] listeners) {
+    Seismometer.Listener[] levelListeners = new Seismometer.Listener[listeners.length];
+    for (int i = 0; i < listeners.length; i++) {
+      final ShakeDetector.Listener listener = listeners[i];
+      levelListeners[i] = new Seismometer.Listener() {
+        @Override public void hearShake() {
+          listener.hearShake();
+        }
+      };
+    }
+    this.seismometer = new MultiSeismometer(accelerationThresholds, levelListeners);
+  }
+
+  /**
+   * Starts listening for shakes on devices with appropriate hardware.
+   *
+   * @return true if the device supports shake detection.
+   */
+  public boolean start(SensorManager sensorManager) {
+    return start(sensorManager, SensorManager.SENSOR_DELAY_FASTEST);
+  }
+
+  /**
+   * Starts listening for shakes on devices with appropriate hardware.
+   *
+   * @see ShakeDetector#start(SensorManager, int)
+   * @return true if the device supports shake detection.
+   */
+  public boolean start(SensorManager sensorManager, int sensorDelay) {
+    // Already started?
+    if (accelerometer != null || hub != null) {
+      return true;
+    }
+
+    accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+
+    // If this phone has an accelerometer, listen to it.
+    if (accelerometer != null) {
+      this.sensorManager = sensorManager;
+      sensorManager.registerListener(this, accelerometer, sensorDelay);
+    }
+    return accelerometer != null;
+  }
+
+  /**
+   * Starts listening for shakes through {@code hub}, sharing one accelerometer
+   * registration with every other detector that uses it.
+   *
+   * @see ShakeDetector#start(AccelerometerHub, int)
+   * @return true if the device supports shake detection.
+   */
+  public boolean start(AccelerometerHub hub, int sensorDelay) {
+    // Already started?
+    if (accelerometer != null || this.hub != null) {
+      return true;
+    }
+
+    if (hub.subscribe(this, sensorDelay)) {
+      this.hub = hub;
+    }
+    return this.hub != null;
+  }
+
+  /**
+   * Stops listening.  Safe to call when already stopped.  Ignored on devices
+   * without appropriate hardware.
+   */
+  public void stop() {
+    if (accelerometer != null) {
+      seismometer.reset();
+      sensorManager.unregisterListener(this, accelerometer);
+      sensorManager = null;
+      accelerometer = null;
+    } else if (hub != null) {
+      hub.unsubscribe(this);
+      seismometer.reset();
+      hub = null;
+    }
+  }
+
+  @Override public void onSensorChanged(SensorEvent event) {
+    seismometer.onSample(event.timestamp, event.values[0], event.values[1], event.values[2]);
+  }
+
+  @Override public void onAccuracyChanged(Sensor sensor, int accuracy) {
+  }
+}
@@ -5,30 +5,33 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import java.util.ArrayList;
-import java.util.List;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import com.squareup.seismic.trace.TraceRecorder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Detects phone shaking. If more than 75% of the samples taken in the past 0.5s are
  * accelerating, the device is a) shaking, or b) free falling 1.84m (h =
  * 1/2*g*t^2*3/4).
  *
+ * <p>This class adapts the accelerometer to a {@link Seismometer}, which does
+ * the actual detection.
+ *
  * @author Bob Lee (bob@squareup.com)
  * @author Eric Burke (eric@squareup.com)
  */
 public class ShakeDetector implements SensorEventListener {
 
-  public static final int SENSITIVITY_LIGHT = 11;
-  public static final int SENSITIVITY_MEDIUM = 13;
-  public static final int SENSITIVITY_HARD = 15;
-
-  private static final int DEFAULT_ACCELERATION_THRESHOLD = SENSITIVITY_MEDIUM;
-
-  /**
-   * When the magnitude of total acceleration exceeds this
-   * value, the phone is accelerating.
-   */
-  private int accelerationThreshold = DEFAULT_ACCELERATION_THRESHOLD;
+  public static final int SENSITIVITY_LIGHT = Seismometer.SENSITIVITY_LIGHT;
+  public static final int SENSITIVITY_MEDIUM = Seismometer.SENSITIVITY_MEDIUM;
+  public static final int SENSITIVITY_HARD = Seismometer.SENSITIVITY_HARD;
 
   /** Listens for shakes. */
   public interface Listener {
@@ -36,14 +39,260 @@ public class ShakeDetector implements SensorEventListener {
     void hearShake();
   }
 
-  private final SampleQueue queue = new SampleQueue();
+  /** Listens for shakes and the window of samples that made them. */
+  public interface EventListener {
+    /**
+     * Called on the main thread when the device is shaken. {@code event}
+     * belongs to the detector and is refilled for the next shake; copy it
+     * with {@link ShakeEvent#copyFrom} to keep it.
+     */
+    void hearShake(ShakeEvent event);
+  }
+
+  /** Passed to {@link #setIdleSensorDelay} to sample at one rate throughout. */
+  public static final int NO_IDLE_DELAY = -1;
+
+  /** How long the device must be still before adaptive sampling slows down. */
+  private static final long QUIET_PERIOD_NANOS = 2000000000L; // 2s
+
+  /** How long the device must be still before significant motion mode disarms. */
+  private static final long DISARM_PERIOD_NANOS = 5000000000L; // 5s
+
+  /** Background thread shared by detectors that don't bring their own. */
+  private static HandlerThread backgroundThread;
+
   private final Listener listener;
+  private final EventListener eventListener;
+  private final Seismometer seismometer;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  /**
+   * A delivery whose listener has returned, kept for the next shake heard in
+   * the background so that delivering doesn't allocate.
+   */
+  private final AtomicReference<Delivery> spareDelivery = new AtomicReference<Delivery>();
+
+  /** Token that posted deliveries carry, so that {@link #stop} can remove them. */
+  private final Object deliveryToken = new Object();
+
+  /**
+   * Number of posted shakes holding the flight recorder frozen. Each is
+   * thawed once, by its {@link Delivery} or by {@link #stop}.
+   */
+  private final AtomicInteger frozenDeliveries = new AtomicInteger();
+
+  private final Runnable resetSeismometer = new Runnable() {
+    @Override public void run() {
+      seismometer.reset();
+    }
+  };
+
+  /** Goes back to waiting for significant motion. Runs on the main thread. */
+  private final Runnable disarm = new Runnable() {
+    @Override public void run() {
+      disarmPending = false;
+      if (significantMotion != null && armed) {
+        armed = false;
+        sensorManager.unregisterListener(ShakeDetector.this, accelerometer);
+        runOnSensorThread(resetSeismometer);
+        significantMotion.request();
+      }
+    }
+  };
 
   private SensorManager sensorManager;
   private Sensor accelerometer;
+  private AccelerometerHub hub;
+  private Looper sensorLooper;
+
+  /** Handler for {@link #sensorLooper} while started, or null for the main thread. */
+  private Handler sensorHandler;
+
+  /** Counts calls to {@link #stop}. Main thread only. */
+  private int generation;
+
+  /**
+   * The generation of the registration whose events the sensor thread is
+   * processing. Events still queued when the detector stops carry an older
+   * generation, so their shakes are dropped. Sensor thread only.
+   */
+  private int sensorGeneration;
+
+  private int idleSensorDelay = NO_IDLE_DELAY;
+
+  /** Registration parameters while started. */
+  private int activeSensorDelay;
+  private int startedIdleSensorDelay = NO_IDLE_DELAY;
+  private int maxReportLatencyUs;
+
+  private boolean armOnSignificantMotion;
+  private boolean removeGravity;
+
+  /** Listens to the significant motion sensor while started in that mode, otherwise null. */
+  private SignificantMotionTrigger significantMotion;
+
+  /** True while the accelerometer is registered in significant motion mode. */
+  private volatile boolean armed;
+  private volatile boolean disarmPending;
+
+  /** Records raw samples for shake events, or null. Only changes while stopped. */
+  private FlightRecorder flightRecorder;
+
+  /** Records samples and shakes to files, or null. Only touched on the sensor thread. */
+  private TraceRecorder traceRecorder;
+
+  /** Metrics fed on the sensor thread, or null to skip them. Also read on the main thread. */
+  private volatile ShakeMetrics metrics;
+
+  /** True while adaptive sampling is at the idle rate. Sensor thread only once started. */
+  private boolean idling;
+  private long lastAcceleratingTimestamp;
 
   public ShakeDetector(Listener listener) {
+    this(listener, null);
+  }
+
+  public ShakeDetector(EventListener eventListener) {
+    this(null, eventListener);
+  }
+
+  private ShakeDetector(Listener listener, EventListener eventListener) {
     this.listener = listener;
+    this.eventListener = eventListener;
+    this.seismometer = new Seismometer(new Seismometer.EventListener() {
+      @Override public void hearShake(ShakeEvent event) {
+        if (metrics != null) {
+          metrics.recordShake();
+        }
+        if (traceRecorder != null) {
+          traceRecorder.mark(event.windowEndNanos());
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+          ShakeDetector.this.hearShake(event);
+        } else {
+          // Each posted shake has its own copy of the event, so a shake heard
+          // while the last is being delivered can't change it. The recording
+          // stays frozen until the main thread has seen it.
+          if (flightRecorder != null) {
+            flightRecorder.freeze();
+            frozenDeliveries.incrementAndGet();
+          }
+          Delivery delivery = spareDelivery.getAndSet(null);
+          if (delivery == null) {
+            delivery = new Delivery();
+          }
+          delivery.generation = sensorGeneration;
+          delivery.event.copyFrom(event);
+          mainHandler.postAtTime(delivery, deliveryToken, SystemClock.uptimeMillis());
+        }
+      }
+    });
+    // Listeners without events never see the magnitudes.
+    seismometer.setMagnitudeStatistics(eventListener != null);
+  }
+
+  /** Delivers a shake heard on a background thread to the main thread. */
+  private final class Delivery implements Runnable {
+    final ShakeEvent event = new ShakeEvent();
+    int generation;
+
+    @Override public void run() {
+      try {
+        // Drop shakes heard before the detector stopped.
+        if (generation == ShakeDetector.this.generation) {
+          hearShake(event);
+        }
+      } finally {
+        if (claimFrozenDelivery()) {
+          flightRecorder.thaw();
+        }
+        spareDelivery.set(this);
+      }
+    }
+  }
+
+  /** Calls whichever listener this detector was created with. Runs on the main thread. */
+  private void hearShake(ShakeEvent event) {
+    ShakeMetrics metrics = this.metrics;
+    if (metrics != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+      metrics.detectionLatency().record(SystemClock.elapsedRealtimeNanos() - event.accelerationStartNanos());
+    }
+    if (eventListener != null) {
+      eventListener.hearShake(event);
+    } else {
+      listener.hearShake();
+    }
+  }
+
+  /**
+   * Returns the looper of a background thread that all detectors in this
+   * process can share. The thread starts on first use and lives as long as
+   * the process.
+   */
+  public static synchronized Looper backgroundLooper() {
+    if (backgroundThread == null) {
+      backgroundThread = new HandlerThread("Seismic");
+      backgroundThread.start();
+    }
+    return backgroundThread.getLooper();
+  }
+
+  /**
+   * Processes sensor events on {@code looper}'s thread rather than the main
+   * thread. Only {@link Listener#hearShake()} is posted back to the main
+   * thread, so busy sensors don't compete with drawing frames. Pass
+   * {@link #backgroundLooper()} to share a thread with other detectors, or
+   * null to go back to the main thread. Takes effect on the next
+   * {@link #start}.
+   */
+  public void setSensorLooper(Looper looper) {
+    this.sensorLooper = looper;
+  }
+
+  /**
+   * Samples at {@code idleSensorDelay} while the device is still and only
+   * switches to the delay passed to {@link #start} once a sample is
+   * accelerating. It goes back to idling after two seconds without an
+   * accelerating sample. Samples taken at the idle rate stay in the window,
+   * so the switch doesn't delay detection. Use {@link #NO_IDLE_DELAY}, the
+   * default, to sample at one rate throughout. Takes effect on the next
+   * {@link #start}.
+   *
+   * @param idleSensorDelay a slow SensorManager delay such as
+   *     SENSOR_DELAY_NORMAL or SENSOR_DELAY_UI
+   */
+  public void setIdleSensorDelay(int idleSensorDelay) {
+    this.idleSensorDelay = idleSensorDelay;
+  }
+
+  /**
+   * Detects shakes in acceleration with gravity removed, so that detection no
+   * longer depends on how the device is held. Uses the linear acceleration
+   * sensor, which fuses sensors in the sensor hub on most devices, and falls
+   * back to filtering gravity out of accelerometer samples where it is
+   * missing, or when started through an {@link AccelerometerHub}.
+   * Sensitivities keep their meaning. Takes effect on the next
+   * {@link #start}.
+   *
+   * @see Seismometer#setGravityMode
+   */
+  public void setRemoveGravity(boolean removeGravity) {
+    this.removeGravity = removeGravity;
+  }
+
+  /**
+   * Leaves the accelerometer off until the one-shot significant motion sensor
+   * fires, and turns it off again after five seconds without an accelerating
+   * sample. The significant motion sensor runs in the sensor hub, so the
+   * application processor can sleep while the device is stationary. The
+   * first moments of a shake may be missed while the accelerometer starts.
+   * Devices without a significant motion sensor, or older than Android 4.3
+   * (API 18), listen to the accelerometer throughout. Takes effect on the
+   * next {@link #start(SensorManager, int, int)}; detectors started through
+   * an {@link AccelerometerHub} ignore it.
+   */
+  public void setArmOnSignificantMotion(boolean armOnSignificantMotion) {
+    this.armOnSignificantMotion = armOnSignificantMotion;
   }
 
   /**
@@ -65,200 +314,380 @@ public class ShakeDetector implements SensorEventListener {
    * @return true if the device supports shake detection.
    */
   public boolean start(SensorManager sensorManager, int sensorDelay) {
+    return start(sensorManager, sensorDelay, 0);
+  }
+
+  /**
+   * Starts listening for shakes on devices with appropriate hardware, letting
+   * the sensor hub batch events for up to {@code maxReportLatencyUs}
+   * microseconds before waking the application processor. Batched events
+   * arrive in bursts and a shake is heard no later than the end of the burst
+   * that completes it, so the latency bounds how late a shake can be heard.
+   *
+   * <p>Batching requires Android 4.4 (API 19) and a sensor with a hardware
+   * FIFO. Otherwise events are delivered as they happen, as if
+   * {@code maxReportLatencyUs} were 0.
+   *
+   * @return true if the device supports shake detection.
+   */
+  public boolean start(SensorManager sensorManager, int sensorDelay, int maxReportLatencyUs) {
     // Already started?
-    if (accelerometer != null) {
+    if (accelerometer != null || hub != null) {
       return true;
     }
 
-    accelerometer = sensorManager.getDefaultSensor(
-        Sensor.TYPE_ACCELEROMETER);
+    int gravityMode = Seismometer.GRAVITY_INCLUDED;
+    if (removeGravity) {
+      accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
+      gravityMode = Seismometer.GRAVITY_REMOVED;
+    }
+    if (accelerometer == null) {
+      accelerometer = sensorManager.getDefaultSensor(
+          Sensor.TYPE_ACCELEROMETER);
+      gravityMode = removeGravity ? Seismometer.GRAVITY_FILTERED : Seismometer.GRAVITY_INCLUDED;
+    }
 
     // If this phone has an accelerometer, listen to it.
     if (accelerometer != null) {
       this.sensorManager = sensorManager;
-      sensorManager.registerListener(this, accelerometer, sensorDelay);
+      this.maxReportLatencyUs = maxReportLatencyUs;
+      sensorHandler = sensorLooper != null ? new Handler(sensorLooper) : null;
+      final int startGeneration = generation;
+      runOnSensorThread(new Runnable() {
+        @Override public void run() {
+          sensorGeneration = startGeneration;
+        }
+      });
+      setGravityMode(gravityMode);
+      int startDelay = startDelay(sensorDelay);
+      if (armOnSignificantMotion && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+        Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+        if (sensor != null) {
+          significantMotion = new SignificantMotionTrigger(sensor);
+          if (!significantMotion.request()) {
+            significantMotion = null;
+          }
+        }
+      }
+      if (significantMotion == null) {
+        register(startDelay);
+      }
     }
     return accelerometer != null;
   }
 
+  /** Starts listening to the accelerometer after significant motion. */
+  private void arm(final long timestamp) {
+    if (significantMotion == null) {
+      return; // Stopped.
+    }
+    // The device is already moving, so skip adaptive sampling's idle rate.
+    runOnSensorThread(new Runnable() {
+      @Override public void run() {
+        lastAcceleratingTimestamp = timestamp;
+        idling = false;
+      }
+    });
+    disarmPending = false;
+    armed = true;
+    register(activeSensorDelay);
+  }
+
   /**
-   * Stops listening.  Safe to call when already stopped.  Ignored on devices
-   * without appropriate hardware.
+   * Arms the detector when the significant motion sensor fires. A class of
+   * its own so that TriggerEventListener, which is new in API 18, is only
+   * loaded once the version has been checked.
    */
-  public void stop() {
-    if (accelerometer != null) {
-      queue.clear();
-      sensorManager.unregisterListener(this, accelerometer);
-      sensorManager = null;
-      accelerometer = null;
+  private final class SignificantMotionTrigger extends TriggerEventListener {
+    private final Sensor sensor;
+
+    SignificantMotionTrigger(Sensor sensor) {
+      this.sensor = sensor;
     }
-  }
 
-  @Override public void onSensorChanged(SensorEvent event) {
-    boolean accelerating = isAccelerating(event);
-    long timestamp = event.timestamp;
-    queue.add(timestamp, accelerating);
-    if (queue.isShaking()) {
-      queue.clear();
-      listener.hearShake();
+    /** Waits for the next significant motion. Returns false if the sensor can't. */
+    boolean request() {
+      return sensorManager.requestTriggerSensor(this, sensor);
     }
-  }
 
-  /** Returns true if the device is currently accelerating. */
-  private boolean isAccelerating(SensorEvent event) {
-    float ax = event.values[0];
-    float ay = event.values[1];
-    float az = event.values[2];
+    void cancel() {
+      sensorManager.cancelTriggerSensor(this, sensor);
+    }
 
-    // Instead of comparing magnitude to ACCELERATION_THRESHOLD,
-    // compare their squares. This is equivalent and doesn't need the
-    // actual magnitude, which would be computed using (expensive) Math.sqrt().
-    final double magnitudeSquared = ax * ax + ay * ay + az * az;
-    return magnitudeSquared > accelerationThreshold * accelerationThreshold;
+    @Override public void onTrigger(TriggerEvent event) {
+      arm(event.timestamp);
+    }
   }
 
-  /** Sets the acceleration threshold sensitivity. */
-  public void setSensitivity(int accelerationThreshold) {
-    this.accelerationThreshold = accelerationThreshold;
+  /**
+   * Starts listening for shakes through {@code hub}, sharing one accelerometer
+   * registration with every other detector that uses it. Events are processed
+   * on the main thread whatever {@link #setSensorLooper} was given.
+   *
+   * @param sensorDelay one of the SensorManager SENSOR_DELAY constants, or a
+   *     sampling period in microseconds. The hub may deliver events faster.
+   * @return true if the device supports shake detection.
+   */
+  public boolean start(AccelerometerHub hub, int sensorDelay) {
+    // Already started?
+    if (accelerometer != null || this.hub != null) {
+      return true;
+    }
+
+    setGravityMode(removeGravity ? Seismometer.GRAVITY_FILTERED : Seismometer.GRAVITY_INCLUDED);
+    if (hub.subscribe(this, startDelay(sensorDelay))) {
+      this.hub = hub;
+    }
+    return this.hub != null;
   }
 
-  /** Queue of samples. Keeps a running average. */
-  static class SampleQueue {
+  /** Sets up adaptive sampling and returns the delay to start with. */
+  private int startDelay(int sensorDelay) {
+    activeSensorDelay = sensorDelay;
+    startedIdleSensorDelay = idleSensorDelay;
+    idling = startedIdleSensorDelay != NO_IDLE_DELAY;
+    return idling ? startedIdleSensorDelay : sensorDelay;
+  }
 
-    /** Window size in ns. Used to compute the average. */
-    private static final long MAX_WINDOW_SIZE = 500000000; // 0.5s
-    private static final long MIN_WINDOW_SIZE = MAX_WINDOW_SIZE >> 1; // 0.25s
+  /** Registers for accelerometer events, replacing any earlier registration. */
+  private void register(int sensorDelay) {
+    if (hub != null) {
+      hub.subscribe(this, sensorDelay);
+      return;
+    }
+    if (maxReportLatencyUs > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      sensorManager.registerListener(this, accelerometer, sensorDelay, maxReportLatencyUs,
+          sensorHandler);
+    } else {
+      sensorManager.registerListener(this, accelerometer, sensorDelay, sensorHandler);
+    }
+  }
 
-    /**
-     * Ensure the queue size never falls below this size, even if the device
-     * fails to deliver this many events during the time window. The LG Ally
-     * is one such device.
-     */
-    private static final int MIN_QUEUE_SIZE = 4;
+  /** Re-registers at a new delay, keeping the samples seen so far. */
+  private void changeDelay(int sensorDelay) {
+    if (hub == null) {
+      sensorManager.unregisterListener(this, accelerometer);
+    }
+    register(sensorDelay);
+  }
 
-    private final SamplePool pool = new SamplePool();
+  /**
+   * Stops listening.  Safe to call when already stopped.  Ignored on devices
+   * without appropriate hardware.
+   */
+  public void stop() {
+    if (accelerometer != null) {
+      if (significantMotion != null) {
+        significantMotion.cancel();
+        significantMotion = null;
+        armed = false;
+        disarmPending = false;
+        mainHandler.removeCallbacks(disarm);
+      }
+      sensorManager.unregisterListener(this, accelerometer);
+      runOnSensorThread(resetSeismometer);
+      generation++;
+      mainHandler.removeCallbacksAndMessages(deliveryToken);
+      thawFrozenDeliveries();
+      sensorHandler = null;
+      sensorManager = null;
+      accelerometer = null;
+    } else if (hub != null) {
+      hub.unsubscribe(this);
+      seismometer.reset();
+      generation++;
+      mainHandler.removeCallbacksAndMessages(deliveryToken);
+      thawFrozenDeliveries();
+      hub = null;
+    }
+  }
 
-    private Sample oldest;
-    private Sample newest;
-    private int sampleCount;
-    private int acceleratingCount;
+  /** Thaws the flight recorder for shakes that will no longer be delivered. */
+  private void thawFrozenDeliveries() {
+    while (claimFrozenDelivery()) {
+      flightRecorder.thaw();
+    }
+  }
 
-    /**
-     * Adds a sample.
-     *
-     * @param timestamp    in nanoseconds of sample
-     * @param accelerating true if > {@link #accelerationThreshold}.
-     */
-    void add(long timestamp, boolean accelerating) {
-      // Purge samples that proceed window.
-      purge(timestamp - MAX_WINDOW_SIZE);
-
-      // Add the sample to the queue.
-      Sample added = pool.acquire();
-      added.timestamp = timestamp;
-      added.accelerating = accelerating;
-      added.next = null;
-      if (newest != null) {
-        newest.next = added;
+  /** Returns true if this call should thaw one posted shake's freeze. */
+  private boolean claimFrozenDelivery() {
+    while (true) {
+      int count = frozenDeliveries.get();
+      if (count == 0) {
+        return false;
       }
-      newest = added;
-      if (oldest == null) {
-        oldest = added;
+      if (frozenDeliveries.compareAndSet(count, count - 1)) {
+        return true;
       }
+    }
+  }
+
+  @Override public void onSensorChanged(SensorEvent event) {
+    ShakeMetrics metrics = this.metrics;
+    if (metrics == null) {
+      process(event);
+      return;
+    }
+    // Sensor timestamps share elapsedRealtimeNanos()'s time base.
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+      metrics.deliveryLatency().record(SystemClock.elapsedRealtimeNanos() - event.timestamp);
+    }
+    long start = System.nanoTime();
+    process(event);
+    metrics.endSample(event.timestamp, seismometer.windowSampleCount(), seismometer.queueCapacity(),
+        System.nanoTime() - start);
+  }
 
-      // Update running average.
-      sampleCount++;
-      if (accelerating) {
-        acceleratingCount++;
+  private void process(SensorEvent event) {
+    if (traceRecorder != null) {
+      traceRecorder.onSample(event.timestamp, event.values[0], event.values[1], event.values[2]);
+    }
+    seismometer.onSample(event.timestamp, event.values[0], event.values[1], event.values[2]);
+    if (startedIdleSensorDelay != NO_IDLE_DELAY) {
+      adaptDelay(event.timestamp);
+    }
+    if (armed) {
+      if (seismometer.isAccelerating()) {
+        lastAcceleratingTimestamp = event.timestamp;
+      } else if (!disarmPending
+          && event.timestamp - lastAcceleratingTimestamp > DISARM_PERIOD_NANOS) {
+        disarmPending = true;
+        mainHandler.post(disarm);
       }
     }
+  }
 
-    /** Removes all samples from this queue. */
-    void clear() {
-      while (oldest != null) {
-        Sample removed = oldest;
-        oldest = removed.next;
-        pool.release(removed);
+  /** Samples fast while the device moves, and slowly once it has been still for a while. */
+  private void adaptDelay(long timestamp) {
+    if (seismometer.isAccelerating()) {
+      lastAcceleratingTimestamp = timestamp;
+      if (idling) {
+        idling = false;
+        changeDelay(activeSensorDelay);
       }
-      newest = null;
-      sampleCount = 0;
-      acceleratingCount = 0;
+    } else if (!idling && timestamp - lastAcceleratingTimestamp > QUIET_PERIOD_NANOS) {
+      idling = true;
+      changeDelay(startedIdleSensorDelay);
     }
+  }
 
-    /** Purges samples with timestamps older than cutoff. */
-    void purge(long cutoff) {
-      while (sampleCount >= MIN_QUEUE_SIZE
-          && oldest != null && cutoff - oldest.timestamp > 0) {
-        // Remove sample.
-        Sample removed = oldest;
-        if (removed.accelerating) {
-          acceleratingCount--;
-        }
-        sampleCount--;
+  /** Sets the acceleration threshold sensitivity. */
+  public void setSensitivity(final int accelerationThreshold) {
+    runOnSensorThread(new Runnable() {
+      @Override public void run() {
+        seismometer.setSensitivity(accelerationThreshold);
+      }
+    });
+  }
 
-        oldest = removed.next;
-        if (oldest == null) {
-          newest = null;
-        }
-        pool.release(removed);
+  /**
+   * Sets whether to hear vigorous shakes early, after about 120ms rather
+   * than 250ms or more. Useful when shaking triggers something the user is
+   * waiting on, such as undo. See {@link Seismometer#setSequentialTest}.
+   */
+  public void setSequentialTest(final boolean sequentialTest) {
+    runOnSensorThread(new Runnable() {
+      @Override public void run() {
+        seismometer.setSequentialTest(sequentialTest);
       }
-    }
+    });
+  }
 
-    /** Copies the samples into a list, with the oldest entry at index 0. */
-    List<Sample> asList() {
-      List<Sample> list = new ArrayList<Sample>();
-      Sample s = oldest;
-      while (s != null) {
-        list.add(s);
-        s = s.next;
+  /**
+   * Sets whether the accelerating ratio counts time rather than samples.
+   * This keeps detection accurate at slower delays such as
+   * SENSOR_DELAY_GAME or SENSOR_DELAY_UI, which cost far less power than
+   * SENSOR_DELAY_FASTEST. See {@link Seismometer#setTimeWeighted}.
+   */
+  public void setTimeWeighted(final boolean timeWeighted) {
+    runOnSensorThread(new Runnable() {
+      @Override public void run() {
+        seismometer.setTimeWeighted(timeWeighted);
       }
-      return list;
-    }
+    });
+  }
 
-    /**
-     * Returns true if we have enough samples and more than 3/4 of those samples
-     * are accelerating.
-     */
-    boolean isShaking() {
-      return newest != null
-          && oldest != null
-          && newest.timestamp - oldest.timestamp >= MIN_WINDOW_SIZE
-          && acceleratingCount >= (sampleCount >> 1) + (sampleCount >> 2);
-    }
+  /**
+   * Sets whether to size the window's queue to the measured sample rate,
+   * which saves memory and work at fast sensor delays. See
+   * {@link Seismometer#setAutoTune}.
+   */
+  public void setAutoTune(final boolean autoTune) {
+    runOnSensorThread(new Runnable() {
+      @Override public void run() {
+        seismometer.setAutoTune(autoTune);
+      }
+    });
   }
 
-  /** An accelerometer sample. */
-  static class Sample {
-    /** Time sample was taken. */
-    long timestamp;
+  /**
+   * Keeps the raw samples leading up to each shake in {@code flightRecorder},
+   * or none if null. {@link EventListener}s find them in
+   * {@link ShakeEvent#recording()}, for example to attach to a bug report.
+   * The recorder is frozen until the listener returns, so nothing is copied.
+   * Call while stopped.
+   */
+  public void setFlightRecorder(FlightRecorder flightRecorder) {
+    this.flightRecorder = flightRecorder;
+    seismometer.setFlightRecorder(flightRecorder);
+  }
 
-    /** If acceleration > {@link #accelerationThreshold}. */
-    boolean accelerating;
+  /**
+   * Records every sensor event, and a marker for every shake, to
+   * {@code traceRecorder}, or stops recording if it is null. Recording never
+   * blocks the sensor thread. Close the recorder only once this detector is
+   * stopped or has been given another recorder, on the thread given to
+   * {@link #setSensorLooper} if any.
+   */
+  public void setTraceRecorder(final TraceRecorder traceRecorder) {
+    runOnSensorThread(new Runnable() {
+      @Override public void run() {
+        ShakeDetector.this.traceRecorder = traceRecorder;
+      }
+    });
+  }
 
-    /** Next sample in the queue or pool. */
-    Sample next;
+  /**
+   * Records what this detector does in {@code metrics}, or stops recording
+   * if it is null. Each sensor event costs two clock reads while recording
+   * and nothing otherwise. Share one instance per detector.
+   */
+  public void setMetrics(final ShakeMetrics metrics) {
+    runOnSensorThread(new Runnable() {
+      @Override public void run() {
+        ShakeDetector.this.metrics = metrics;
+      }
+    });
   }
 
-  /** Pools samples. Avoids garbage collection. */
-  static class SamplePool {
-    private Sample head;
+  /**
+   * Fills {@code state} with how hard the device is shaking as of the latest
+   * sensor event. Meant to be called once per frame from a game loop or
+   * render thread; it never blocks the sensor thread and doesn't allocate.
+   * The first call starts publishing state, so it may see an empty state.
+   */
+  public void poll(ShakeState state) {
+    seismometer.poll(state);
+  }
 
-    /** Acquires a sample from the pool. */
-    Sample acquire() {
-      Sample acquired = head;
-      if (acquired == null) {
-        acquired = new Sample();
-      } else {
-        // Remove instance from pool.
-        head = acquired.next;
+  private void setGravityMode(final int gravityMode) {
+    runOnSensorThread(new Runnable() {
+      @Override public void run() {
+        seismometer.setGravityMode(gravityMode);
       }
-      return acquired;
-    }
+    });
+  }
 
-    /** Returns a sample to the pool. */
-    void release(Sample sample) {
-      sample.next = head;
-      head = sample;
+  /**
+   * Runs {@code runnable} on the thread that processes sensor events, after
+   * any events already queued there. Apart from {@link #poll}, the
+   * seismometer is only ever touched from that thread.
+   */
+  private void runOnSensorThread(Runnable runnable) {
+    if (sensorHandler != null) {
+      sensorHandler.post(runnable);
+    } else {
+      runnable.run();
     }
   }
 
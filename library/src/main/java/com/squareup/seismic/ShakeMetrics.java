@@ -0,0 +1,163 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic;
+
+/**
+ * Counts what a {@link ShakeDetector} does and what it costs. Pass one to
+ * {@link ShakeDetector#setMetrics}; detectors without metrics skip all of
+ * this.
+ *
+ * <p>The sensor thread updates plain primitive fields under this object's
+ * lock, once per sensor event, so recording never allocates and only waits
+ * while a snapshot is being copied. Any thread may call {@link #snapshot} to
+ * copy them out.
+ *
+ * <p>Two latency histograms are kept alongside the counters, each with its
+ * own recording thread. Export them with {@link LatencyHistogram#copyTo}.
+ */
+public final class ShakeMetrics {
+
+  /**
+   * Number of processing time buckets. Bucket {@code i} counts calls that
+   * took less than 2^i ns; the last one also counts anything slower.
+   */
+  public static final int BUCKET_COUNT = 32;
+
+  /** Weight of each new interval in the sample rate average is 1/2^this. */
+  private static final int INTERVAL_AVERAGE_SHIFT = 4;
+
+  /** Longer gaps are the sensor stopping or idling, not its rate. */
+  private static final long MAX_INTERVAL_NANOS = 1000000000L; // 1s
+
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  /** Shakes heard while processing the current sensor event. Sensor thread only. */
+  private int pendingShakes;
+
+  // Guarded by this.
+  private long samples;
+  private long shakes;
+  private boolean hasLastTimestamp;
+  private long lastTimestamp;
+  private long averageIntervalNanos;
+  private int queueHighWaterMark;
+  private int queueCapacity;
+  private final long[] processingTimes = new long[BUCKET_COUNT];
+
+  private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+  private final LatencyHistogram detectionLatency = new LatencyHistogram();
+
+  /**
+   * Time from each sensor event's timestamp until the detector processes
+   * it. This covers the sensor hub's FIFO, delivery to the app and the
+   * sensor looper's queue. Recorded on the sensor thread on API 17 and up.
+   */
+  public LatencyHistogram deliveryLatency() {
+    return deliveryLatency;
+  }
+
+  /**
+   * Time from the first accelerating sample of each shake until the shake
+   * is delivered to the listener on the main thread. This covers the time
+   * the window takes to fill with enough accelerating samples as well as
+   * delivery. Recorded on the main thread on API 17 and up.
+   */
+  public LatencyHistogram detectionLatency() {
+    return detectionLatency;
+  }
+
+  /** Counts a shake heard while processing a sensor event. Called on the sensor thread. */
+  void recordShake() {
+    pendingShakes++;
+  }
+
+  /**
+   * Records a sensor event and the shakes it completed. Called on the sensor
+   * thread.
+   */
+  synchronized void endSample(long timestamp, int windowSamples, int queueCapacity, long processingNanos) {
+    samples++;
+    shakes += pendingShakes;
+    pendingShakes = 0;
+    long interval = timestamp - lastTimestamp;
+    if (hasLastTimestamp && interval > 0 && interval <= MAX_INTERVAL_NANOS) {
+      if (averageIntervalNanos == 0) {
+        averageIntervalNanos = interval;
+      } else {
+        averageIntervalNanos += (interval - averageIntervalNanos) >> INTERVAL_AVERAGE_SHIFT;
+      }
+    }
+    lastTimestamp = timestamp;
+    hasLastTimestamp = true;
+    if (windowSamples > queueHighWaterMark) {
+      queueHighWaterMark = windowSamples;
+    }
+    this.queueCapacity = queueCapacity;
+    processingTimes[bucket(processingNanos)]++;
+  }
+
+  /** Returns the processing time bucket for {@code nanos}. */
+  static int bucket(long nanos) {
+    return Math.min(Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, nanos)), BUCKET_COUNT - 1);
+  }
+
+  /**
+   * Copies the counters into {@code snapshot}. Safe to call from any thread;
+   * the sensor thread waits for at most the copy. Reusing the snapshot
+   * avoids allocating.
+   */
+  public synchronized void snapshot(Snapshot snapshot) {
+    snapshot.samples = samples;
+    snapshot.shakes = shakes;
+    snapshot.averageIntervalNanos = averageIntervalNanos;
+    snapshot.queueHighWaterMark = queueHighWaterMark;
+    snapshot.queueCapacity = queueCapacity;
+    System.arraycopy(processingTimes, 0, snapshot.processingTimes, 0, BUCKET_COUNT);
+  }
+
+  /** A copy of a detector's metrics at one point in time. */
+  public static final class Snapshot {
+    long samples;
+    long shakes;
+    long averageIntervalNanos;
+    int queueHighWaterMark;
+    int queueCapacity;
+    final long[] processingTimes = new long[BUCKET_COUNT];
+
+    /** Sensor events processed. */
+    public long samples() {
+      return samples;
+    }
+
+    /** Average rate that the sensor delivered events at recently, or 0 if unknown. */
+    public double sampleRateHz() {
+      return averageIntervalNanos == 0 ? 0 : NANOS_PER_SECOND / averageIntervalNanos;
+    }
+
+    /** Shakes heard. */
+    public long shakes() {
+      return shakes;
+    }
+
+    /** Most samples the detector's window has held at once. */
+    public int queueHighWaterMark() {
+      return queueHighWaterMark;
+    }
+
+    /**
+     * Entries the detector's window can hold before it has to grow. Each
+     * entry is one sample unless auto-tuning combines runs of them, so this
+     * can be far below {@link #queueHighWaterMark} at fast sensor delays.
+     */
+    public int queueCapacity() {
+      return queueCapacity;
+    }
+
+    /**
+     * Number of sensor events whose processing took less than 2^bucket ns and
+     * at least half that. See {@link #BUCKET_COUNT}.
+     */
+    public long processingTimeCount(int bucket) {
+      return processingTimes[bucket];
+    }
+  }
+}
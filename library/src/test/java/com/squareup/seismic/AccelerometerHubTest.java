@@ -0,0 +1,133 @@
+package com.squareup.seismic;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+import static android.hardware.SensorManager.SENSOR_DELAY_FASTEST;
+import static android.hardware.SensorManager.SENSOR_DELAY_GAME;
+import static android.hardware.SensorManager.SENSOR_DELAY_NORMAL;
+import static android.hardware.SensorManager.SENSOR_DELAY_UI;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 19)
+public class AccelerometerHubTest {
+  private SensorManager sensorManager;
+  private Sensor accelerometer;
+  private AccelerometerHub hub;
+
+  @Before public void setUp() {
+    sensorManager = mock(SensorManager.class);
+    accelerometer = ReflectionHelpers.callConstructor(Sensor.class);
+    when(sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER)).thenReturn(accelerometer);
+    hub = new AccelerometerHub(sensorManager);
+    verify(sensorManager).getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+  }
+
+  @Test public void periodUs() {
+    assertThat(AccelerometerHub.periodUs(SENSOR_DELAY_FASTEST)).isEqualTo(0);
+    assertThat(AccelerometerHub.periodUs(SENSOR_DELAY_GAME)).isEqualTo(20000);
+    assertThat(AccelerometerHub.periodUs(SENSOR_DELAY_UI)).isEqualTo(66667);
+    assertThat(AccelerometerHub.periodUs(SENSOR_DELAY_NORMAL)).isEqualTo(200000);
+    // Anything else is already a period.
+    assertThat(AccelerometerHub.periodUs(10000)).isEqualTo(10000);
+  }
+
+  @Test public void registersAtTheFastestDelay() {
+    SensorEventListener slow = mock(SensorEventListener.class);
+    SensorEventListener fast = mock(SensorEventListener.class);
+    SensorEventListener medium = mock(SensorEventListener.class);
+    InOrder inOrder = inOrder(sensorManager);
+
+    assertThat(hub.subscribe(slow, SENSOR_DELAY_NORMAL)).isTrue();
+    inOrder.verify(sensorManager).registerListener(hub, accelerometer, SENSOR_DELAY_NORMAL);
+
+    hub.subscribe(fast, SENSOR_DELAY_GAME);
+    inOrder.verify(sensorManager).unregisterListener(hub, accelerometer);
+    inOrder.verify(sensorManager).registerListener(hub, accelerometer, SENSOR_DELAY_GAME);
+
+    // A period in microseconds is compared with the constants' periods.
+    hub.subscribe(medium, 50000);
+    hub.subscribe(slow, SENSOR_DELAY_UI);
+
+    hub.unsubscribe(fast);
+    inOrder.verify(sensorManager).unregisterListener(hub, accelerometer);
+    inOrder.verify(sensorManager).registerListener(hub, accelerometer, 50000);
+
+    hub.unsubscribe(medium);
+    inOrder.verify(sensorManager).unregisterListener(hub, accelerometer);
+    inOrder.verify(sensorManager).registerListener(hub, accelerometer, SENSOR_DELAY_UI);
+
+    // The last subscriber leaving unregisters for good.
+    hub.unsubscribe(slow);
+    inOrder.verify(sensorManager).unregisterListener(hub, accelerometer);
+    hub.unsubscribe(slow);
+    inOrder.verifyNoMoreInteractions();
+  }
+
+  @Test public void subscribingAgainChangesTheDelay() {
+    SensorEventListener subscriber = mock(SensorEventListener.class);
+    hub.subscribe(subscriber, SENSOR_DELAY_NORMAL);
+    hub.subscribe(subscriber, SENSOR_DELAY_NORMAL);
+    hub.subscribe(subscriber, SENSOR_DELAY_GAME);
+    hub.unsubscribe(subscriber);
+
+    InOrder inOrder = inOrder(sensorManager);
+    inOrder.verify(sensorManager).registerListener(hub, accelerometer, SENSOR_DELAY_NORMAL);
+    inOrder.verify(sensorManager).unregisterListener(hub, accelerometer);
+    inOrder.verify(sensorManager).registerListener(hub, accelerometer, SENSOR_DELAY_GAME);
+    inOrder.verify(sensorManager).unregisterListener(hub, accelerometer);
+    inOrder.verifyNoMoreInteractions();
+  }
+
+  @Test public void fansOutToSubscribers() {
+    final SensorEventListener second = mock(SensorEventListener.class);
+    final int[] firstEvents = new int[1];
+    // Unsubscribes the second subscriber while an event is being fanned out.
+    SensorEventListener first = new SensorEventListener() {
+      @Override public void onSensorChanged(SensorEvent event) {
+        firstEvents[0]++;
+        hub.unsubscribe(second);
+      }
+
+      @Override public void onAccuracyChanged(Sensor sensor, int accuracy) {
+      }
+    };
+    hub.subscribe(first, SENSOR_DELAY_GAME);
+    hub.subscribe(second, SENSOR_DELAY_GAME);
+
+    SensorEvent event = ReflectionHelpers.callConstructor(SensorEvent.class, ClassParameter.from(int.class, 3));
+    hub.onSensorChanged(event);
+    hub.onSensorChanged(event);
+
+    // The event being fanned out still reaches the second subscriber, and no later one does.
+    assertThat(firstEvents[0]).isEqualTo(2);
+    verify(second).onSensorChanged(event);
+    verifyNoMoreInteractions(second);
+  }
+
+  @Test public void noAccelerometer() {
+    SensorManager noSensors = mock(SensorManager.class);
+    AccelerometerHub empty = new AccelerometerHub(noSensors);
+    assertThat(empty.subscribe(mock(SensorEventListener.class), SENSOR_DELAY_GAME)).isFalse();
+    verify(noSensors, never()).registerListener(any(SensorEventListener.class), any(Sensor.class), anyInt());
+  }
+}
@@ -1,74 +1,380 @@
 package com.squareup.seismic;
 
-import org.junit.Test;
-
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.Handler;
+import android.os.HandlerThread;
+import java.util.ArrayList;
 import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
 
+import static android.hardware.SensorManager.SENSOR_DELAY_FASTEST;
+import static android.hardware.SensorManager.SENSOR_DELAY_GAME;
+import static android.hardware.SensorManager.SENSOR_DELAY_NORMAL;
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 19)
 public class ShakeDetectorTest {
-  @Test public void testInitialShaking() {
-    ShakeDetector.SampleQueue q = new ShakeDetector.SampleQueue();
-    assertThat(q.isShaking()).isFalse();
-  }
-
-  /** Tests LG Ally sample rate. */
-  @Test public void testShakingSampleCount3() {
-    ShakeDetector.SampleQueue q = new ShakeDetector.SampleQueue();
-
-    // These times approximate the data rate of the slowest device we've
-    // found, the LG Ally.
-    // on the LG Ally. The queue holds 500000000 ns (0.5ms) of samples or
-    // 4 samples, whichever is greater.
-    // 500000000
-    q.add(1000000000L, false);
-    q.add(1300000000L, false);
-    q.add(1600000000L, false);
-    q.add(1900000000L, false);
-    assertContent(q, false, false, false, false);
-    assertThat(q.isShaking()).isFalse();
-
-    // The oldest two entries will be removed.
-    q.add(2200000000L, true);
-    q.add(2500000000L, true);
-    assertContent(q, false, false, true, true);
-    assertThat(q.isShaking()).isFalse();
-
-    // Another entry should be removed, now 3 out of 4 are true.
-    q.add(2800000000L, true);
-    assertContent(q, false, true, true, true);
-    assertThat(q.isShaking()).isTrue();
-
-    q.add(3100000000L, false);
-    assertContent(q, true, true, true, false);
-    assertThat(q.isShaking()).isTrue();
-
-    q.add(3400000000L, false);
-    assertContent(q, true, true, false, false);
-    assertThat(q.isShaking()).isFalse();
-  }
-
-  private void assertContent(ShakeDetector.SampleQueue q, boolean... expected) {
-    List<ShakeDetector.Sample> samples = q.asList();
-
-    StringBuilder sb = new StringBuilder();
-    for (ShakeDetector.Sample s : samples) {
-      sb.append(String.format("[%b,%d] ", s.accelerating, s.timestamp));
+  private SensorManager sensorManager;
+  private Sensor accelerometer;
+  private Sensor significantMotion;
+  private SensorEvent event;
+  private ShakeDetector detector;
+  private int shakes;
+
+  @Before public void setUp() {
+    sensorManager = mock(SensorManager.class);
+    accelerometer = ReflectionHelpers.callConstructor(Sensor.class);
+    significantMotion = ReflectionHelpers.callConstructor(Sensor.class);
+    when(sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER)).thenReturn(accelerometer);
+    event = ReflectionHelpers.callConstructor(SensorEvent.class, ClassParameter.from(int.class, 3));
+    detector = new ShakeDetector(new ShakeDetector.Listener() {
+      @Override public void hearShake() {
+        shakes++;
+      }
+    });
+  }
+
+  @Test public void hearsShakes() {
+    assertThat(detector.start(sensorManager, SENSOR_DELAY_GAME)).isTrue();
+    verify(sensorManager).registerListener(detector, accelerometer, SENSOR_DELAY_GAME, (Handler) null);
+    for (int i = 0; i < 50; i++) {
+      sample(i * 20000000L, 20f);
+    }
+    assertThat(shakes).isGreaterThan(0);
+
+    detector.stop();
+    verify(sensorManager).unregisterListener(detector, accelerometer);
+  }
+
+  @Test public void sensitivity() {
+    detector.setSensitivity(ShakeDetector.SENSITIVITY_HARD);
+    detector.start(sensorManager, SENSOR_DELAY_GAME);
+    // 13 m/s^2 with gravity is a medium shake, not a hard one.
+    for (int i = 0; i < 50; i++) {
+      sample(i * 20000000L, 9.5f);
+    }
+    assertThat(shakes).isEqualTo(0);
+  }
+
+  @Test public void batchesUpToMaxReportLatency() {
+    assertThat(detector.start(sensorManager, SENSOR_DELAY_GAME, 100000)).isTrue();
+    verify(sensorManager).registerListener(detector, accelerometer, SENSOR_DELAY_GAME, 100000, (Handler) null);
+
+    // A burst of batched events is heard by its end.
+    for (int i = 0; i < 50; i++) {
+      sample(i * 20000000L, 20f);
+    }
+    assertThat(shakes).isGreaterThan(0);
+  }
+
+  @Test public void processesOnTheSensorLooper() throws InterruptedException {
+    HandlerThread sensorThread = new HandlerThread("sensor");
+    sensorThread.start();
+    detector.setSensorLooper(sensorThread.getLooper());
+    detector.start(sensorManager, SENSOR_DELAY_GAME);
+    verify(sensorManager).registerListener(eq(detector), eq(accelerometer), eq(SENSOR_DELAY_GAME),
+        any(Handler.class));
+
+    // Shakes heard on the sensor thread wait for the main thread.
+    ShadowLooper.pauseMainLooper();
+    sampleOnAnotherThread(20f);
+    assertThat(shakes).isEqualTo(0);
+    ShadowLooper.unPauseMainLooper();
+    assertThat(shakes).isGreaterThan(0);
+    sensorThread.quit();
+  }
+
+  @Test public void stopDropsShakesNotYetDelivered() throws InterruptedException {
+    HandlerThread sensorThread = new HandlerThread("sensor");
+    sensorThread.start();
+    detector.setSensorLooper(sensorThread.getLooper());
+    detector.start(sensorManager, SENSOR_DELAY_GAME);
+
+    ShadowLooper.pauseMainLooper();
+    sampleOnAnotherThread(20f);
+    detector.stop();
+    // Events still queued on the sensor thread are processed after stop().
+    sampleOnAnotherThread(20f);
+    ShadowLooper.unPauseMainLooper();
+    assertThat(shakes).isEqualTo(0);
+    sensorThread.quit();
+  }
+
+  @Test public void eachPostedShakeKeepsItsOwnEvent() throws InterruptedException {
+    final List<Long> windowEnds = new ArrayList<Long>();
+    detector = new ShakeDetector(new ShakeDetector.EventListener() {
+      @Override public void hearShake(ShakeEvent event) {
+        windowEnds.add(event.windowEndNanos());
+      }
+    });
+    HandlerThread sensorThread = new HandlerThread("sensor");
+    sensorThread.start();
+    detector.setSensorLooper(sensorThread.getLooper());
+    detector.start(sensorManager, SENSOR_DELAY_GAME);
+
+    // Several shakes are heard before the main thread delivers any of them.
+    ShadowLooper.pauseMainLooper();
+    sampleOnAnotherThread(20f);
+    ShadowLooper.unPauseMainLooper();
+    assertThat(windowEnds.size()).isGreaterThan(1);
+    assertThat(windowEnds.get(0)).isLessThan(windowEnds.get(windowEnds.size() - 1));
+    sensorThread.quit();
+  }
+
+  @Test public void postedShakesKeepTheFlightRecorderFrozen() throws InterruptedException {
+    final FlightRecorder recorder = new FlightRecorder(1000000000L, 100, false);
+    final List<Integer> recordedSizes = new ArrayList<Integer>();
+    detector = new ShakeDetector(new ShakeDetector.EventListener() {
+      @Override public void hearShake(ShakeEvent event) {
+        recordedSizes.add(event.recording().size());
+      }
+    });
+    detector.setFlightRecorder(recorder);
+    HandlerThread sensorThread = new HandlerThread("sensor");
+    sensorThread.start();
+    detector.setSensorLooper(sensorThread.getLooper());
+    detector.start(sensorManager, SENSOR_DELAY_GAME);
+
+    // Samples after the first shake aren't recorded until it is delivered.
+    ShadowLooper.pauseMainLooper();
+    sampleOnAnotherThread(20f);
+    int frozenSize = recorder.size();
+    ShadowLooper.unPauseMainLooper();
+    assertThat(recordedSizes).isNotEmpty();
+    assertThat(frozenSize).isLessThan(50);
+    assertThat(recordedSizes.get(0)).isEqualTo(frozenSize);
+
+    // Delivered, the recorder records again.
+    recorder.onSample(1000000000L, 0f, 0f, 9.81f);
+    assertThat(recorder.size()).isEqualTo(frozenSize + 1);
+    sensorThread.quit();
+  }
+
+  @Test public void stopThawsTheFlightRecorder() throws InterruptedException {
+    FlightRecorder recorder = new FlightRecorder(1000000000L, 100, false);
+    detector.setFlightRecorder(recorder);
+    HandlerThread sensorThread = new HandlerThread("sensor");
+    sensorThread.start();
+    detector.setSensorLooper(sensorThread.getLooper());
+    detector.start(sensorManager, SENSOR_DELAY_GAME);
+
+    ShadowLooper.pauseMainLooper();
+    sampleOnAnotherThread(20f);
+    detector.stop();
+    ShadowLooper.unPauseMainLooper();
+    int size = recorder.size();
+    recorder.onSample(1000000000L, 0f, 0f, 9.81f);
+    assertThat(recorder.size()).isEqualTo(size + 1);
+    sensorThread.quit();
+  }
+
+  @Test public void adaptiveSamplingSpeedsUpWhileMoving() {
+    detector.setIdleSensorDelay(SENSOR_DELAY_NORMAL);
+    detector.start(sensorManager, SENSOR_DELAY_GAME);
+    InOrder inOrder = inOrder(sensorManager);
+    inOrder.verify(sensorManager).registerListener(detector, accelerometer, SENSOR_DELAY_NORMAL, (Handler) null);
+
+    // Still samples leave it idling.
+    sample(1000000000L, 0f);
+    sample(1200000000L, 0f);
+    inOrder.verify(sensorManager, never()).unregisterListener(detector, accelerometer);
+
+    // The first accelerating sample switches to the active delay.
+    sample(1400000000L, 20f);
+    inOrder.verify(sensorManager).unregisterListener(detector, accelerometer);
+    inOrder.verify(sensorManager).registerListener(detector, accelerometer, SENSOR_DELAY_GAME, (Handler) null);
+
+    // It goes back to idling after two still seconds.
+    sample(2400000000L, 0f);
+    sample(3400000000L, 0f);
+    inOrder.verify(sensorManager, never()).unregisterListener(detector, accelerometer);
+    sample(3500000000L, 0f);
+    inOrder.verify(sensorManager).unregisterListener(detector, accelerometer);
+    inOrder.verify(sensorManager).registerListener(detector, accelerometer, SENSOR_DELAY_NORMAL, (Handler) null);
+  }
+
+  @Test public void significantMotionArmsAndDisarms() {
+    when(sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION)).thenReturn(significantMotion);
+    when(sensorManager.requestTriggerSensor(any(TriggerEventListener.class), eq(significantMotion)))
+        .thenReturn(true);
+    detector.setArmOnSignificantMotion(true);
+    assertThat(detector.start(sensorManager, SENSOR_DELAY_GAME)).isTrue();
+
+    // Disarmed, the accelerometer is off.
+    ArgumentCaptor<TriggerEventListener> trigger = ArgumentCaptor.forClass(TriggerEventListener.class);
+    verify(sensorManager).requestTriggerSensor(trigger.capture(), eq(significantMotion));
+    verify(sensorManager, never()).registerListener(any(SensorEventListener.class), any(Sensor.class), anyInt(),
+        any(Handler.class));
+
+    // Significant motion arms it.
+    TriggerEvent triggerEvent = ReflectionHelpers.callConstructor(TriggerEvent.class,
+        ClassParameter.from(int.class, 1));
+    triggerEvent.timestamp = 1000000000L;
+    trigger.getValue().onTrigger(triggerEvent);
+    verify(sensorManager).registerListener(detector, accelerometer, SENSOR_DELAY_GAME, (Handler) null);
+
+    // Five still seconds disarm it and wait for the next significant motion.
+    sample(1500000000L, 20f);
+    sample(6000000000L, 0f);
+    ShadowLooper.runUiThreadTasks();
+    verify(sensorManager, never()).unregisterListener(detector, accelerometer);
+    sample(6600000000L, 0f);
+    ShadowLooper.runUiThreadTasks();
+    verify(sensorManager).unregisterListener(detector, accelerometer);
+    verify(sensorManager, times(2)).requestTriggerSensor(trigger.getValue(), significantMotion);
+
+    detector.stop();
+    verify(sensorManager).cancelTriggerSensor(trigger.getValue(), significantMotion);
+  }
+
+  @Test public void listensThroughoutWithoutSignificantMotionSensor() {
+    detector.setArmOnSignificantMotion(true);
+    assertThat(detector.start(sensorManager, SENSOR_DELAY_GAME)).isTrue();
+    verify(sensorManager).registerListener(detector, accelerometer, SENSOR_DELAY_GAME, (Handler) null);
+    verify(sensorManager, never()).requestTriggerSensor(any(TriggerEventListener.class), any(Sensor.class));
+  }
+
+  @Test public void restartingClearsAQueuedDisarm() {
+    when(sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION)).thenReturn(significantMotion);
+    when(sensorManager.requestTriggerSensor(any(TriggerEventListener.class), eq(significantMotion)))
+        .thenReturn(true);
+    detector.setArmOnSignificantMotion(true);
+    detector.start(sensorManager, SENSOR_DELAY_GAME);
+    ArgumentCaptor<TriggerEventListener> trigger = ArgumentCaptor.forClass(TriggerEventListener.class);
+    verify(sensorManager).requestTriggerSensor(trigger.capture(), eq(significantMotion));
+    TriggerEvent triggerEvent = ReflectionHelpers.callConstructor(TriggerEvent.class,
+        ClassParameter.from(int.class, 1));
+    triggerEvent.timestamp = 0L;
+    trigger.getValue().onTrigger(triggerEvent);
+
+    // Stopped while a disarm is queued.
+    ShadowLooper.pauseMainLooper();
+    sample(6000000000L, 0f);
+    detector.stop();
+    ShadowLooper.unPauseMainLooper();
+    detector.start(sensorManager, SENSOR_DELAY_GAME);
+    verify(sensorManager, times(2)).requestTriggerSensor(trigger.capture(), eq(significantMotion));
+    trigger.getValue().onTrigger(triggerEvent);
+
+    // The new registration still disarms after five still seconds.
+    sample(6000000000L, 0f);
+    ShadowLooper.runUiThreadTasks();
+    verify(sensorManager, times(2)).unregisterListener(detector, accelerometer);
+    verify(sensorManager, times(3)).requestTriggerSensor(any(TriggerEventListener.class), eq(significantMotion));
+  }
+
+  @Test public void removesGravityWithTheLinearAccelerationSensor() {
+    Sensor linearAcceleration = ReflectionHelpers.callConstructor(Sensor.class);
+    when(sensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION)).thenReturn(linearAcceleration);
+    detector.setRemoveGravity(true);
+    assertThat(detector.start(sensorManager, SENSOR_DELAY_GAME)).isTrue();
+    verify(sensorManager).registerListener(detector, linearAcceleration, SENSOR_DELAY_GAME, (Handler) null);
+
+    // Samples arrive without gravity, and 12 m/s^2 either way is a medium shake.
+    for (int i = 0; i < 50; i++) {
+      event.timestamp = i * 20000000L;
+      event.values[0] = 0f;
+      event.values[1] = 0f;
+      event.values[2] = i % 2 == 0 ? 12f : -12f;
+      detector.onSensorChanged(event);
+    }
+    assertThat(shakes).isGreaterThan(0);
+  }
+
+  @Test public void filtersGravityWithoutTheLinearAccelerationSensor() {
+    detector.setRemoveGravity(true);
+    assertThat(detector.start(sensorManager, SENSOR_DELAY_GAME)).isTrue();
+    verify(sensorManager).registerListener(detector, accelerometer, SENSOR_DELAY_GAME, (Handler) null);
+
+    // Held still, gravity alone is not a shake.
+    for (int i = 0; i < 50; i++) {
+      sample(i * 20000000L, 0f);
+    }
+    assertThat(shakes).isEqualTo(0);
+  }
+
+  @Test public void metricsCountSamplesWhenAutoTuning() {
+    ShakeMetrics metrics = new ShakeMetrics();
+    detector.setMetrics(metrics);
+    detector.setAutoTune(true);
+    detector.start(sensorManager, SENSOR_DELAY_FASTEST);
+    // Half a second at 500Hz, combined into entries of several samples.
+    for (int i = 0; i < 250; i++) {
+      sample(i * 2000000L, 0f);
     }
+    ShakeMetrics.Snapshot snapshot = new ShakeMetrics.Snapshot();
+    metrics.snapshot(snapshot);
+    assertThat(snapshot.samples()).isEqualTo(250);
+    assertThat(snapshot.queueHighWaterMark()).isGreaterThan(200);
+    assertThat(snapshot.queueCapacity()).isLessThan(snapshot.queueHighWaterMark());
+  }
 
-    assertThat(samples).hasSize(expected.length);
-    for (int i = 0; i < expected.length; i++) {
-      assertThat(samples.get(i).accelerating).isEqualTo(expected[i]);
+  @Test public void sharesAHub() {
+    AccelerometerHub hub = new AccelerometerHub(sensorManager);
+    assertThat(detector.start(hub, SENSOR_DELAY_GAME)).isTrue();
+    verify(sensorManager).registerListener(hub, accelerometer, SENSOR_DELAY_GAME);
+    for (int i = 0; i < 50; i++) {
+      event.timestamp = i * 20000000L;
+      event.values[0] = 20f;
+      event.values[2] = 9.81f;
+      hub.onSensorChanged(event);
     }
+    assertThat(shakes).isGreaterThan(0);
+
+    detector.stop();
+    verify(sensorManager).unregisterListener(hub, accelerometer);
+  }
+
+  @Test public void noAccelerometer() {
+    SensorManager noSensors = mock(SensorManager.class);
+    assertThat(detector.start(noSensors, SENSOR_DELAY_GAME)).isFalse();
+    verify(noSensors, never()).registerListener(any(SensorEventListener.class), any(Sensor.class), anyInt(),
+        any(Handler.class));
+  }
+
+  /** Delivers a second of shaking samples from a thread other than the main thread. */
+  private void sampleOnAnotherThread(final float x) throws InterruptedException {
+    Thread thread = new Thread(new Runnable() {
+      @Override public void run() {
+        for (int i = 0; i < 50; i++) {
+          sample(i * 20000000L, x);
+        }
+      }
+    });
+    thread.start();
+    thread.join();
   }
 
-  @Test public void testClear() {
-    ShakeDetector.SampleQueue q = new ShakeDetector.SampleQueue();
-    q.add(1000000000L, true);
-    q.add(1200000000L, true);
-    q.add(1400000000L, true);
-    assertThat(q.isShaking()).isTrue();
-    q.clear();
-    assertThat(q.isShaking()).isFalse();
+  /** Delivers a sample accelerating by {@code x} along x, on top of gravity. */
+  private void sample(long timestamp, float x) {
+    event.timestamp = timestamp;
+    event.values[0] = x;
+    event.values[1] = 0f;
+    event.values[2] = 9.81f;
+    detector.onSensorChanged(event);
   }
 }
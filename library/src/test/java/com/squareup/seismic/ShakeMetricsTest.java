@@ -0,0 +1,42 @@
+package com.squareup.seismic;
+
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ShakeMetricsTest {
+  private final ShakeMetrics metrics = new ShakeMetrics();
+  private final ShakeMetrics.Snapshot snapshot = new ShakeMetrics.Snapshot();
+
+  @Test public void countsSamplesAndShakes() {
+    metrics.endSample(20000000L, 1, 64, 100);
+    metrics.recordShake();
+    metrics.endSample(40000000L, 2, 64, 100);
+    metrics.snapshot(snapshot);
+    assertThat(snapshot.samples()).isEqualTo(2);
+    assertThat(snapshot.shakes()).isEqualTo(1);
+    assertThat(snapshot.queueHighWaterMark()).isEqualTo(2);
+    assertThat(snapshot.queueCapacity()).isEqualTo(64);
+  }
+
+  @Test public void sampleRateCountsFromATimestampOfZero() {
+    metrics.endSample(0L, 1, 64, 100);
+    metrics.endSample(20000000L, 2, 64, 100);
+    metrics.snapshot(snapshot);
+    assertThat(snapshot.sampleRateHz()).isEqualTo(50.0);
+  }
+
+  @Test public void sampleRateIgnoresLongGaps() {
+    metrics.endSample(0L, 1, 64, 100);
+    metrics.endSample(2000000000L, 1, 64, 100);
+    metrics.snapshot(snapshot);
+    assertThat(snapshot.sampleRateHz()).isEqualTo(0.0);
+  }
+
+  @Test public void processingTimeBuckets() {
+    assertThat(ShakeMetrics.bucket(0)).isEqualTo(0);
+    assertThat(ShakeMetrics.bucket(1)).isEqualTo(1);
+    assertThat(ShakeMetrics.bucket(1000)).isEqualTo(10);
+    assertThat(ShakeMetrics.bucket(Long.MAX_VALUE)).isEqualTo(ShakeMetrics.BUCKET_COUNT - 1);
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.tools;
+
+import com.squareup.seismic.SampleSink;
+import com.squareup.seismic.Seismometer;
+import com.squareup.seismic.trace.TraceIndex;
+import com.squareup.seismic.trace.TraceReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Lists every second of every trace in a directory in which the magnitude of
+ * acceleration exceeded a threshold. Uses each trace's {@link TraceIndex} to
+ * read only the blocks that can exceed it, building the index on first use.
+ *
+ * <pre>
+ * java -cp seismic-tools.jar com.squareup.seismic.tools.Exceedances \
+ *     --threshold 15 corpus/
+ * </pre>
+ *
+ * Results are written to standard out as CSV, one row per second. Compressed
+ * traces aren't indexed and are skipped.
+ */
+public final class Exceedances {
+  private static final long NANOS_PER_SECOND = 1000000000L;
+
+  private Exceedances() {
+  }
+
+  /** Prints the seconds of {@code trace} in which a sample exceeded {@code threshold}. */
+  static void find(File trace, float threshold, final PrintStream out) throws IOException {
+    final String name = trace.getName();
+    TraceIndex index = TraceIndex.load(trace);
+    TraceReader reader = new TraceReader(trace);
+    try {
+      index.scan(reader, 0, Long.MAX_VALUE, threshold, new SampleSink() {
+        private long lastSecond = -1;
+
+        @Override public void onSample(long timestampNanos, float x, float y, float z) {
+          long second = timestampNanos / NANOS_PER_SECOND;
+          if (second != lastSecond) {
+            out.println(name + "," + second);
+            lastSecond = second;
+          }
+        }
+      });
+    } finally {
+      reader.close();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    float threshold = Seismometer.SENSITIVITY_HARD;
+    File directory = null;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if ("--threshold".equals(arg)) {
+        threshold = Float.parseFloat(args[++i]);
+      } else if (directory == null && !arg.startsWith("--")) {
+        directory = new File(arg);
+      } else {
+        usage();
+        return;
+      }
+    }
+    if (directory == null) {
+      usage();
+      return;
+    }
+    File[] files = directory.listFiles();
+    if (files == null) {
+      throw new IOException("Not a directory: " + directory);
+    }
+    Arrays.sort(files);
+    System.out.println("trace,second");
+    for (File file : files) {
+      if (file.getName().endsWith(LabeledTrace.TRACE_SUFFIX)) {
+        find(file, threshold, System.out);
+      }
+    }
+  }
+
+  private static void usage() {
+    System.err.println("usage: Exceedances [--threshold 15] trace-directory");
+    System.exit(1);
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A trace file and the shakes a person marked in it. Labels for
+ * {@code name.trace} live next to it in {@code name.labels}, one shake per
+ * line as its start and end timestamps in nanoseconds:
+ *
+ * <pre>
+ * # start      end
+ * 81234000000  81901000000
+ * </pre>
+ *
+ * A trace without a labels file contains no shakes. Compressed traces are
+ * named {@code name.ctrace} and labeled the same way.
+ */
+final class LabeledTrace {
+  static final String TRACE_SUFFIX = ".trace";
+  static final String COMPRESSED_TRACE_SUFFIX = ".ctrace";
+  static final String LABELS_SUFFIX = ".labels";
+
+  final File file;
+
+  /** Start and end of each labeled shake, sorted by start. */
+  final long[] starts;
+  final long[] ends;
+
+  LabeledTrace(File file, long[] starts, long[] ends) {
+    this.file = file;
+    this.starts = starts;
+    this.ends = ends;
+  }
+
+  /** True if {@link #file} is read with a {@code CompressedTraceReader}. */
+  boolean compressed() {
+    return file.getName().endsWith(COMPRESSED_TRACE_SUFFIX);
+  }
+
+  /** Loads every trace in {@code directory}, in name order. */
+  static List<LabeledTrace> loadCorpus(File directory) throws IOException {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      throw new IOException("Not a directory: " + directory);
+    }
+    Arrays.sort(files);
+    List<LabeledTrace> corpus = new ArrayList<>();
+    for (File file : files) {
+      if (file.getName().endsWith(TRACE_SUFFIX) || file.getName().endsWith(COMPRESSED_TRACE_SUFFIX)) {
+        corpus.add(load(file));
+      }
+    }
+    return corpus;
+  }
+
+  static LabeledTrace load(File trace) throws IOException {
+    String name = trace.getName();
+    String suffix = name.endsWith(COMPRESSED_TRACE_SUFFIX) ? COMPRESSED_TRACE_SUFFIX : TRACE_SUFFIX;
+    File labels = new File(trace.getParentFile(),
+        name.substring(0, name.length() - suffix.length()) + LABELS_SUFFIX);
+    List<long[]> shakes = new ArrayList<>();
+    if (labels.exists()) {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(new FileInputStream(labels), StandardCharsets.UTF_8));
+      try {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+          line = line.trim();
+          if (line.isEmpty() || line.startsWith("#")) {
+            continue;
+          }
+          String[] fields = line.split("\\s+");
+          if (fields.length != 2) {
+            throw new IOException(labels + ": expected start and end: " + line);
+          }
+          shakes.add(new long[] {Long.parseLong(fields[0]), Long.parseLong(fields[1])});
+        }
+      } finally {
+        reader.close();
+      }
+    }
+
+    long[][] sorted = shakes.toArray(new long[shakes.size()][]);
+    Arrays.sort(sorted, new Comparator<long[]>() {
+      @Override public int compare(long[] a, long[] b) {
+        return Long.compare(a[0], b[0]);
+      }
+    });
+    long[] starts = new long[sorted.length];
+    long[] ends = new long[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      starts[i] = sorted[i][0];
+      ends[i] = sorted[i][1];
+    }
+    return new LabeledTrace(trace, starts, ends);
+  }
+}
@@ -0,0 +1,242 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.tools;
+
+import com.squareup.seismic.Seismometer;
+import com.squareup.seismic.trace.CompressedTraceReader;
+import com.squareup.seismic.trace.Replayer;
+import com.squareup.seismic.trace.TraceReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Replays a labeled trace corpus through every combination of a grid of
+ * detector parameters and reports precision, recall and detection latency for
+ * each. Every (parameters, trace) pair is replayed on its own detector, in
+ * parallel on a fork/join pool.
+ *
+ * <pre>
+ * java -jar seismic-tools.jar \
+ *     --thresholds 11,13,15 --windows-ms 250,500,750 \
+ *     --min-queue-sizes 4 --ratios 0.6,0.75,0.9 corpus/
+ * </pre>
+ *
+ * Results are written to standard out as CSV, one row per combination.
+ *
+ * @see LabeledTrace for the corpus layout
+ */
+public final class ParameterSweep {
+  private static final long NANOS_PER_MILLI = 1000000L;
+
+  /** One combination of detector parameters. */
+  static final class Parameters {
+    final int threshold;
+    final long windowNanos;
+    final int minQueueSize;
+    final float acceleratingRatio;
+
+    Parameters(int threshold, long windowNanos, int minQueueSize, float acceleratingRatio) {
+      this.threshold = threshold;
+      this.windowNanos = windowNanos;
+      this.minQueueSize = minQueueSize;
+      this.acceleratingRatio = acceleratingRatio;
+    }
+  }
+
+  private final List<LabeledTrace> corpus;
+  private final List<Parameters> grid;
+
+  ParameterSweep(List<LabeledTrace> corpus, List<Parameters> grid) {
+    if (corpus.isEmpty()) {
+      throw new IllegalArgumentException("No traces in the corpus");
+    }
+    if (grid.isEmpty()) {
+      throw new IllegalArgumentException("No parameters to sweep");
+    }
+    this.corpus = corpus;
+    this.grid = grid;
+  }
+
+  /** Returns every combination of the given values. */
+  static List<Parameters> grid(int[] thresholds, long[] windowsNanos, int[] minQueueSizes,
+      float[] acceleratingRatios) {
+    List<Parameters> grid = new ArrayList<>();
+    for (int threshold : thresholds) {
+      for (long windowNanos : windowsNanos) {
+        for (int minQueueSize : minQueueSizes) {
+          for (float acceleratingRatio : acceleratingRatios) {
+            grid.add(new Parameters(threshold, windowNanos, minQueueSize, acceleratingRatio));
+          }
+        }
+      }
+    }
+    return grid;
+  }
+
+  /** Scores every combination in the grid, in grid order. */
+  Score[] run(ForkJoinPool pool) throws IOException {
+    Score[] pairScores = new Score[grid.size() * corpus.size()];
+    try {
+      pool.invoke(new Evaluate(pairScores, 0, pairScores.length));
+    } catch (TraceException e) {
+      throw (IOException) e.getCause();
+    }
+
+    Score[] scores = new Score[grid.size()];
+    for (int i = 0; i < scores.length; i++) {
+      scores[i] = new Score();
+      for (int j = 0; j < corpus.size(); j++) {
+        scores[i].add(pairScores[i * corpus.size() + j]);
+      }
+    }
+    return scores;
+  }
+
+  /** Replays one trace with one set of parameters. */
+  Score evaluate(Parameters parameters, LabeledTrace trace) throws IOException {
+    Replayer replayer = new Replayer();
+    Seismometer seismometer = new Seismometer(replayer);
+    seismometer.setSensitivity(parameters.threshold);
+    seismometer.setWindow(parameters.windowNanos, parameters.minQueueSize);
+    seismometer.setAcceleratingRatio(parameters.acceleratingRatio);
+    if (trace.compressed()) {
+      CompressedTraceReader reader = new CompressedTraceReader(trace.file);
+      try {
+        replayer.replay(reader, seismometer);
+      } finally {
+        reader.close();
+      }
+    } else {
+      TraceReader reader = new TraceReader(trace.file);
+      try {
+        replayer.replay(reader, seismometer);
+      } finally {
+        reader.close();
+      }
+    }
+    Score score = new Score();
+    score.add(trace, replayer.shakeTimestamps());
+    return score;
+  }
+
+  /** Evaluates a range of (parameters, trace) pairs, splitting it until each task has one. */
+  private final class Evaluate extends RecursiveAction {
+    private static final long serialVersionUID = 0L;
+
+    private final Score[] scores;
+    private final int from;
+    private final int to;
+
+    Evaluate(Score[] scores, int from, int to) {
+      this.scores = scores;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override protected void compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new Evaluate(scores, from, middle), new Evaluate(scores, middle, to));
+        return;
+      }
+      if (to - from != 1) {
+        return;
+      }
+      Parameters parameters = grid.get(from / corpus.size());
+      LabeledTrace trace = corpus.get(from % corpus.size());
+      try {
+        scores[from] = evaluate(parameters, trace);
+      } catch (IOException e) {
+        throw new TraceException(e);
+      }
+    }
+  }
+
+  /** Carries a trace's IOException out of a fork/join task. */
+  private static final class TraceException extends RuntimeException {
+    private static final long serialVersionUID = 0L;
+
+    TraceException(IOException cause) {
+      super(cause);
+    }
+  }
+
+  void printCsv(Score[] scores, PrintStream out) {
+    out.println("threshold,window_ms,min_queue_size,accelerating_ratio,"
+        + "detections,precision,recall,mean_latency_ms,max_latency_ms");
+    for (int i = 0; i < scores.length; i++) {
+      Parameters parameters = grid.get(i);
+      Score score = scores[i];
+      out.println(String.format(Locale.US, "%d,%d,%d,%.3f,%d,%.4f,%.4f,%.1f,%.1f",
+          parameters.threshold, parameters.windowNanos / NANOS_PER_MILLI,
+          parameters.minQueueSize, parameters.acceleratingRatio, score.detections,
+          score.precision(), score.recall(),
+          score.meanLatencyNanos() / NANOS_PER_MILLI,
+          (double) score.maxLatencyNanos / NANOS_PER_MILLI));
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int[] thresholds = {Seismometer.SENSITIVITY_LIGHT, Seismometer.SENSITIVITY_MEDIUM,
+        Seismometer.SENSITIVITY_HARD};
+    long[] windowsNanos = {Seismometer.DEFAULT_WINDOW_NANOS};
+    int[] minQueueSizes = {Seismometer.DEFAULT_MIN_QUEUE_SIZE};
+    float[] ratios = {Seismometer.DEFAULT_ACCELERATING_RATIO};
+    File corpusDirectory = null;
+
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if ("--thresholds".equals(arg)) {
+        thresholds = parseInts(args[++i]);
+      } else if ("--windows-ms".equals(arg)) {
+        int[] windowsMs = parseInts(args[++i]);
+        windowsNanos = new long[windowsMs.length];
+        for (int j = 0; j < windowsMs.length; j++) {
+          windowsNanos[j] = windowsMs[j] * NANOS_PER_MILLI;
+        }
+      } else if ("--min-queue-sizes".equals(arg)) {
+        minQueueSizes = parseInts(args[++i]);
+      } else if ("--ratios".equals(arg)) {
+        String[] values = args[++i].split(",");
+        ratios = new float[values.length];
+        for (int j = 0; j < values.length; j++) {
+          ratios[j] = Float.parseFloat(values[j]);
+        }
+      } else if (corpusDirectory == null && !arg.startsWith("--")) {
+        corpusDirectory = new File(arg);
+      } else {
+        usage();
+        return;
+      }
+    }
+    if (corpusDirectory == null) {
+      usage();
+      return;
+    }
+
+    ParameterSweep sweep = new ParameterSweep(LabeledTrace.loadCorpus(corpusDirectory),
+        grid(thresholds, windowsNanos, minQueueSizes, ratios));
+    Score[] scores = sweep.run(new ForkJoinPool());
+    sweep.printCsv(scores, System.out);
+  }
+
+  private static int[] parseInts(String list) {
+    String[] values = list.split(",");
+    int[] result = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = Integer.parseInt(values[i].trim());
+    }
+    return result;
+  }
+
+  private static void usage() {
+    System.err.println("usage: ParameterSweep [--thresholds 11,13,15] [--windows-ms 500]"
+        + " [--min-queue-sizes 4] [--ratios 0.75] corpus-directory");
+    System.exit(1);
+  }
+}
@@ -0,0 +1,75 @@
+// Copyright 2010 Square, Inc.
+package com.squareup.seismic.tools;
+
+/** How well one set of parameters detected the labeled shakes in a corpus. */
+final class Score {
+  /** Shakes the detector heard. */
+  long detections;
+
+  /** Detections that fell within a labeled shake. */
+  long trueDetections;
+
+  /** Labeled shakes. */
+  long labels;
+
+  /** Labeled shakes with at least one detection. */
+  long detectedLabels;
+
+  /** Sum and maximum of the time from each detected label's start to its first detection. */
+  long latencySumNanos;
+  long maxLatencyNanos;
+
+  /**
+   * Scores the shakes heard in one trace against its labels.
+   *
+   * @param shakes timestamps of the shakes heard, in order
+   */
+  void add(LabeledTrace trace, long[] shakes) {
+    detections += shakes.length;
+    labels += trace.starts.length;
+
+    // Both the labels and the detections are in time order.
+    int shake = 0;
+    for (int label = 0; label < trace.starts.length; label++) {
+      long start = trace.starts[label];
+      long end = trace.ends[label];
+      while (shake < shakes.length && shakes[shake] < start) {
+        shake++;
+      }
+      if (shake < shakes.length && shakes[shake] <= end) {
+        long latency = shakes[shake] - start;
+        detectedLabels++;
+        latencySumNanos += latency;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+      }
+      while (shake < shakes.length && shakes[shake] <= end) {
+        trueDetections++;
+        shake++;
+      }
+    }
+  }
+
+  void add(Score other) {
+    detections += other.detections;
+    trueDetections += other.trueDetections;
+    labels += other.labels;
+    detectedLabels += other.detectedLabels;
+    latencySumNanos += other.latencySumNanos;
+    maxLatencyNanos = Math.max(maxLatencyNanos, other.maxLatencyNanos);
+  }
+
+  /** Fraction of detections that were real shakes, or NaN if there were none. */
+  double precision() {
+    return (double) trueDetections / detections;
+  }
+
+  /** Fraction of real shakes that were detected, or NaN if there were none. */
+  double recall() {
+    return (double) detectedLabels / labels;
+  }
+
+  /** Mean time from the start of a real shake to its detection, or NaN if none were. */
+  double meanLatencyNanos() {
+    return (double) latencySumNanos / detectedLabels;
+  }
+}
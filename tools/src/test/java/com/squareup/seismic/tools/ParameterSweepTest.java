@@ -0,0 +1,95 @@
+package com.squareup.seismic.tools;
+
+import com.squareup.seismic.trace.CompressedTraceWriter;
+import com.squareup.seismic.trace.TraceWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ParameterSweepTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  /** Writes 2s at 50Hz with {@code x} acceleration from 0.5s to 1.5s. */
+  private void writeTrace(File directory, String name, float x, String labels, boolean compressed)
+      throws IOException {
+    if (compressed) {
+      CompressedTraceWriter writer = new CompressedTraceWriter(new File(directory, name + ".ctrace"), "test", 50f);
+      for (int i = 0; i < 100; i++) {
+        writer.onSample(i * 20000000L, i >= 25 && i < 75 ? x : 0f, 0f, 9.81f);
+      }
+      writer.close();
+    } else {
+      TraceWriter writer = new TraceWriter(new File(directory, name + ".trace"), "test", 50f);
+      for (int i = 0; i < 100; i++) {
+        writer.onSample(i * 20000000L, i >= 25 && i < 75 ? x : 0f, 0f, 9.81f);
+      }
+      writer.close();
+    }
+    if (labels != null) {
+      FileOutputStream out = new FileOutputStream(new File(directory, name + ".labels"));
+      out.write(labels.getBytes("UTF-8"));
+      out.close();
+    }
+  }
+
+  @Test public void sweep() throws IOException {
+    File corpus = temporaryFolder.newFolder();
+    writeTrace(corpus, "shake", 10f, "# A real shake.\n500000000 1500000000\n", false);
+    writeTrace(corpus, "bump", 20f, null, true);
+
+    List<LabeledTrace> traces = LabeledTrace.loadCorpus(corpus);
+    assertThat(traces).hasSize(2);
+    ParameterSweep sweep = new ParameterSweep(traces, ParameterSweep.grid(
+        new int[] { 13, 15 }, new long[] { 500000000L }, new int[] { 4 }, new float[] { 0.75f }));
+    Score[] scores = sweep.run(new ForkJoinPool(2));
+
+    // At 13, both traces shake: the labeled one is found but the bump is a false positive.
+    assertThat(scores[0].labels).isEqualTo(1L);
+    assertThat(scores[0].detectedLabels).isEqualTo(1L);
+    assertThat(scores[0].recall()).isEqualTo(1.0);
+    assertThat(scores[0].precision()).isLessThan(1.0);
+    assertThat(scores[0].meanLatencyNanos()).isGreaterThan(0.0);
+
+    // At 15, only the bump shakes.
+    assertThat(scores[1].detectedLabels).isEqualTo(0L);
+    assertThat(scores[1].trueDetections).isEqualTo(0L);
+    assertThat(scores[1].detections).isGreaterThan(0);
+  }
+
+  @Test public void rejectsEmptyCorpusAndGrid() {
+    List<ParameterSweep.Parameters> grid = ParameterSweep.grid(
+        new int[] { 13 }, new long[] { 500000000L }, new int[] { 4 }, new float[] { 0.75f });
+    List<LabeledTrace> corpus = Collections.singletonList(new LabeledTrace(null, new long[0], new long[0]));
+    try {
+      new ParameterSweep(Collections.<LabeledTrace>emptyList(), grid);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      new ParameterSweep(corpus, Collections.<ParameterSweep.Parameters>emptyList());
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void scoreMatchesDetectionsToLabels() {
+    LabeledTrace trace = new LabeledTrace(null, new long[] { 100, 500 }, new long[] { 200, 600 });
+    Score score = new Score();
+    score.add(trace, new long[] { 50, 150, 180, 550 });
+
+    assertThat(score.detections).isEqualTo(4L);
+    assertThat(score.trueDetections).isEqualTo(3L);
+    assertThat(score.detectedLabels).isEqualTo(2L);
+    assertThat(score.latencySumNanos).isEqualTo(50L + 50L);
+    assertThat(score.maxLatencyNanos).isEqualTo(50L);
+  }
+}